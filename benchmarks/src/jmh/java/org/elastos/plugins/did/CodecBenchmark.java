@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2021 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.plugins.did;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+
+/**
+ * Conversions done for every action: hex digests, JWT payloads and the JSON results sent back
+ * to the app.
+ */
+public class CodecBenchmark {
+    private static final JSONArray DOCUMENT_FIELDS = new JSONArray()
+            .put("id").put("publicKeys").put("expires");
+
+    @Benchmark
+    public byte[] hex2byte(DIDFixture fixture) {
+        return DIDCodec.hex2byte(fixture.digestHex);
+    }
+
+    @Benchmark
+    public String byte2hex(DIDFixture fixture) {
+        return DIDCodec.byte2hex(fixture.digest);
+    }
+
+    @Benchmark
+    public JSONObject parseJWT(DIDFixture fixture) throws Exception {
+        return fixture.engine.parseJWT(fixture.jwt, false);
+    }
+
+    @Benchmark
+    public JSONObject publicKeysInfoJson(DIDFixture fixture) throws Exception {
+        return JSONObjectHolder.getPublicKeysInfoJson(fixture.holder.getPublicKeys());
+    }
+
+    @Benchmark
+    public JSONObject documentFieldsJson(DIDFixture fixture) throws Exception {
+        return JSONObjectHolder.getDocumentFieldsJson(fixture.holder, DOCUMENT_FIELDS);
+    }
+}
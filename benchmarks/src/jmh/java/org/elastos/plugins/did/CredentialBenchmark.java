@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2021 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.plugins.did;
+
+import org.elastos.did.VerifiableCredential;
+import org.openjdk.jmh.annotations.Benchmark;
+
+/**
+ * Credential issuance, parsing (plain, and through the engine parse cache) and verification.
+ */
+public class CredentialBenchmark {
+    @Benchmark
+    public VerifiableCredential issue(DIDFixture fixture) throws Exception {
+        return fixture.engine.issueCredential(DIDFixture.STORE_ID, fixture.issuer.getSubject().toString(),
+                fixture.holder.getSubject().toString(), DIDFixture.CREDENTIAL_ID, DIDFixture.CREDENTIAL_TYPES,
+                30, DIDFixture.CREDENTIAL_PROPERTIES, DIDFixture.STOREPASS);
+    }
+
+    @Benchmark
+    public VerifiableCredential parse(DIDFixture fixture) throws Exception {
+        return VerifiableCredential.parse(fixture.credentialJson);
+    }
+
+    @Benchmark
+    public VerifiableCredential parseCached(DIDFixture fixture) throws Exception {
+        return fixture.engine.parseCredential(fixture.credentialJson);
+    }
+
+    @Benchmark
+    public boolean verify(DIDFixture fixture) throws Exception {
+        VerifiableCredential credential = VerifiableCredential.parse(fixture.credentialJson);
+        return credential.isValid() && credential.isGenuine();
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2021 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.plugins.did;
+
+import org.elastos.did.DIDBackend;
+import org.elastos.did.DIDDocument;
+import org.elastos.did.Mnemonic;
+import org.elastos.did.VerifiableCredential;
+import org.elastos.did.VerifiablePresentation;
+import org.elastos.plugins.did.bench.InMemoryDIDAdapter;
+import org.elastos.plugins.did.bench.InMemoryIDChain;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A store with an issuer DID and a holder DID published on an in-memory ID chain, a credential
+ * issued to the holder, a presentation of it and a JWT signed by the holder.
+ */
+@State(Scope.Benchmark)
+public class DIDFixture {
+    static final String STORE_ID = "benchmark";
+    static final String STOREPASS = "benchmark-storepass";
+    static final String CREDENTIAL_ID = "#profile";
+    static final String[] CREDENTIAL_TYPES = { "BasicProfileCredential" };
+    static final String CREDENTIAL_PROPERTIES = "{\"name\":\"Benchmark\",\"email\":\"benchmark@example.com\"}";
+    static final String JWT_CLAIMS = "{\"purpose\":\"benchmark\",\"nonce\":\"0123456789\"}";
+
+    InMemoryIDChain chain;
+    ExecutorService executor;
+    File dataDir;
+    DIDEngine engine;
+
+    DIDDocument issuer;
+    DIDDocument holder;
+    String holderJson;
+    VerifiableCredential credential;
+    String credentialJson;
+    VerifiablePresentation presentation;
+    String presentationJson;
+    String jwt;
+
+    byte[] data;
+    byte[] digest;
+    String digestHex;
+    String signature;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        chain = new InMemoryIDChain();
+        DIDBackend.initialize(new InMemoryDIDAdapter(chain));
+
+        executor = Executors.newFixedThreadPool(4);
+        dataDir = Files.createTempDirectory("did-benchmark").toFile();
+        engine = new DIDEngine(dataDir, executor);
+        engine.openStore(STORE_ID);
+        engine.initRootIdentity(STORE_ID, Mnemonic.getInstance().generate(), "", true, STOREPASS);
+
+        issuer = engine.newDid(STORE_ID, STOREPASS);
+        issuer.publish(STOREPASS);
+        holder = engine.newDid(STORE_ID, STOREPASS);
+        holder.publish(STOREPASS);
+        holderJson = holder.toString(true);
+
+        credential = engine.issueCredential(STORE_ID, issuer.getSubject().toString(), holder.getSubject().toString(),
+                CREDENTIAL_ID, CREDENTIAL_TYPES, 30, CREDENTIAL_PROPERTIES, STOREPASS);
+        credentialJson = credential.toString(true);
+
+        presentation = engine.createPresentation(STORE_ID, holder.getSubject().toString(),
+                Collections.singletonList(credential), "benchmark-realm", "benchmark-nonce", STOREPASS);
+        presentationJson = presentation.toString(true);
+
+        jwt = engine.createJWT(holder.getSubject().toString(), JWT_CLAIMS, 1, STOREPASS);
+
+        data = CREDENTIAL_PROPERTIES.getBytes(Charset.forName("UTF-8"));
+        digest = MessageDigest.getInstance("SHA-256").digest(data);
+        digestHex = DIDCodec.byte2hex(digest);
+        signature = holder.sign(STOREPASS, data);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        engine.reset();
+        executor.shutdownNow();
+        delete(dataDir);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children)
+                delete(child);
+        }
+        file.delete();
+    }
+}
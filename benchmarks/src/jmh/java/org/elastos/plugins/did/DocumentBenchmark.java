@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2021 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.plugins.did;
+
+import org.elastos.did.DIDDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+
+/**
+ * DID document serialization, and signatures with the document keys.
+ */
+public class DocumentBenchmark {
+    @Benchmark
+    public String serialize(DIDFixture fixture) {
+        return fixture.holder.toString(true);
+    }
+
+    @Benchmark
+    public DIDDocument parse(DIDFixture fixture) throws Exception {
+        return DIDDocument.parse(fixture.holderJson);
+    }
+
+    @Benchmark
+    public String sign(DIDFixture fixture) throws Exception {
+        return fixture.holder.sign(DIDFixture.STOREPASS, fixture.data);
+    }
+
+    @Benchmark
+    public String signDigest(DIDFixture fixture) throws Exception {
+        return fixture.holder.signDigest(DIDFixture.STOREPASS, fixture.digest);
+    }
+
+    @Benchmark
+    public boolean verify(DIDFixture fixture) {
+        return fixture.holder.verify(fixture.signature, fixture.data);
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2021 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.plugins.did;
+
+import org.elastos.did.VerifiablePresentation;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Presentation creation and verification, and JWT creation and verified parsing. Verifications
+ * resolve the DIDs involved, from the DID SDK resolve cache once warmed up.
+ *
+ * createJWTs scores are per token, to compare with createJWT.
+ */
+public class PresentationBenchmark {
+    private static final int JWT_BATCH = 16;
+    private static final List<String> JWT_BATCH_CLAIMS = Collections.nCopies(JWT_BATCH, DIDFixture.JWT_CLAIMS);
+    private static final JSONObject JWT_BATCH_HEADER = new JSONObject();
+
+    @Benchmark
+    public VerifiablePresentation create(DIDFixture fixture) throws Exception {
+        return fixture.engine.createPresentation(DIDFixture.STORE_ID, fixture.holder.getSubject().toString(),
+                Collections.singletonList(fixture.credential), "benchmark-realm", "benchmark-nonce", DIDFixture.STOREPASS);
+    }
+
+    @Benchmark
+    public boolean verify(DIDFixture fixture) throws Exception {
+        VerifiablePresentation presentation = VerifiablePresentation.parse(fixture.presentationJson);
+        return presentation.isValid() && presentation.isGenuine();
+    }
+
+    @Benchmark
+    public boolean verifyCached(DIDFixture fixture) throws Exception {
+        return fixture.engine.isPresentationValid(fixture.presentationJson)
+                && fixture.engine.isPresentationGenuine(fixture.presentationJson);
+    }
+
+    @Benchmark
+    public String createJWT(DIDFixture fixture) throws Exception {
+        return fixture.engine.createJWT(fixture.holder.getSubject().toString(), DIDFixture.JWT_CLAIMS, 1,
+                DIDFixture.STOREPASS);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(JWT_BATCH)
+    public List<String> createJWTs(DIDFixture fixture) throws Exception {
+        return fixture.engine.createJWTs(fixture.holder.getSubject().toString(), JWT_BATCH_HEADER, 24 * 60 * 60,
+                JWT_BATCH_CLAIMS, DIDFixture.STOREPASS);
+    }
+
+    @Benchmark
+    public JSONObject parseJWTVerified(DIDFixture fixture) throws Exception {
+        return fixture.engine.parseJWT(fixture.jwt, true);
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2021 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.plugins.did;
+
+import org.elastos.did.DefaultDIDAdapter;
+import org.elastos.did.exception.DIDTransactionException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * DID adapter of the load harness: resolves through the plugin resolver transport (pooled
+ * keep-alive connections), like DIDPluginAdapter does, and publishes by posting ID transactions
+ * to the stub ID chain endpoint, where the plugin hands them to the app.
+ */
+public class StubChainDIDAdapter extends DefaultDIDAdapter {
+    private final URL idChainUrl;
+    private final DIDResolverTransport transport = new DIDResolverTransport();
+
+    public StubChainDIDAdapter(URL resolverUrl, URL idChainUrl) {
+        super(resolverUrl);
+        this.idChainUrl = idChainUrl;
+    }
+
+    @Override
+    protected InputStream httpPost(URL url, Map<String, String> headers, String body) throws IOException {
+        return transport.post(url, headers, body);
+    }
+
+    @Override
+    public void createIdTransaction(String payload, String memo) throws DIDTransactionException {
+        try {
+            transport.post(idChainUrl, null, payload).close();
+        } catch (IOException e) {
+            throw new DIDTransactionException("ID transaction not accepted: " + e.getMessage(), e);
+        }
+    }
+}
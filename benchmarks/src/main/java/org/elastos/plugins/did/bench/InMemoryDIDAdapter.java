@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2021 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.plugins.did.bench;
+
+import org.elastos.did.DIDAdapter;
+import org.elastos.did.exception.DIDResolveException;
+import org.elastos.did.exception.DIDTransactionException;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * DID adapter resolving from, and publishing to, an in-memory ID chain.
+ */
+public class InMemoryDIDAdapter implements DIDAdapter {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final InMemoryIDChain chain;
+
+    public InMemoryDIDAdapter(InMemoryIDChain chain) {
+        this.chain = chain;
+    }
+
+    @Override
+    public InputStream resolve(String request) throws DIDResolveException {
+        try {
+            return new ByteArrayInputStream(chain.resolve(request).getBytes(UTF8));
+        } catch (Exception e) {
+            throw new DIDResolveException("In-memory resolve failed", e);
+        }
+    }
+
+    @Override
+    public void createIdTransaction(String payload, String memo) throws DIDTransactionException {
+        try {
+            chain.submit(payload);
+        } catch (Exception e) {
+            throw new DIDTransactionException("In-memory ID transaction rejected", e);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2021 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.plugins.did.bench;
+
+import org.elastos.did.DIDEntity;
+import org.elastos.did.backend.CredentialRequest;
+import org.elastos.did.backend.DIDRequest;
+import org.elastos.did.backend.IDChainRequest;
+import org.elastos.did.exception.DIDSyntaxException;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.security.SecureRandom;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Stand-in for the ID chain and its resolver, kept in memory: accepts the ID transactions the DID
+ * SDK creates when publishing, and answers resolve requests with the same JSON-RPC responses a
+ * resolver would.
+ *
+ * Requests are not validated the way the chain does, beyond being well formed.
+ */
+public class InMemoryIDChain {
+    // Resolve result status
+    private static final int STATUS_VALID = 0;
+    private static final int STATUS_DEACTIVATED_OR_REVOKED = 2;
+    private static final int STATUS_NOT_FOUND = 3;
+
+    private static class Transaction {
+        final String txid;
+        final Date timestamp;
+        final JSONObject operation;
+
+        Transaction(String txid, Date timestamp, JSONObject operation) {
+            this.txid = txid;
+            this.timestamp = timestamp;
+            this.operation = operation;
+        }
+
+        JSONObject toJson(SimpleDateFormat dateFormat) throws JSONException {
+            JSONObject r = new JSONObject();
+            r.put("txid", txid);
+            r.put("timestamp", dateFormat.format(timestamp));
+            r.put("operation", operation);
+            return r;
+        }
+    }
+
+    private static class History {
+        // Newest first, like resolver responses.
+        final List<Transaction> transactions = new ArrayList<>();
+        int status = STATUS_VALID;
+    }
+
+    private final SecureRandom random = new SecureRandom();
+    private final Map<String, History> dids = new HashMap<>();
+    private final Map<String, History> credentials = new HashMap<>();
+
+    /**
+     * Adds an ID transaction, as created by the DID SDK (DIDAdapter.createIdTransaction()).
+     */
+    public synchronized void submit(String payload) throws DIDSyntaxException, JSONException {
+        JSONObject operation = new JSONObject(payload);
+        String specification = operation.getJSONObject("header").getString("specification");
+        Transaction transaction = new Transaction(newTxid(), new Date(), operation);
+
+        if (IDChainRequest.DID_SPECIFICATION.equals(specification)) {
+            DIDRequest request = DIDEntity.parse(payload, DIDRequest.class);
+            History history = history(dids, request.getDid().toString());
+            history.transactions.add(0, transaction);
+            if (request.getOperation() == IDChainRequest.Operation.DEACTIVATE)
+                history.status = STATUS_DEACTIVATED_OR_REVOKED;
+        }
+        else if (IDChainRequest.CREDENTIAL_SPECIFICATION.equals(specification)) {
+            CredentialRequest request = DIDEntity.parse(payload, CredentialRequest.class);
+            History history = history(credentials, request.getCredentialId().toString());
+            history.transactions.add(0, transaction);
+            if (request.getOperation() == IDChainRequest.Operation.REVOKE)
+                history.status = STATUS_DEACTIVATED_OR_REVOKED;
+        }
+        else {
+            throw new IllegalArgumentException("Unknown ID transaction specification: " + specification);
+        }
+    }
+
+    /**
+     * Answers a JSON-RPC resolve request (DIDAdapter.resolve()).
+     */
+    public synchronized String resolve(String request) throws JSONException {
+        JSONObject json = new JSONObject(request);
+        Object id = json.opt("id");
+        String method = json.optString("method");
+        JSONObject params = json.getJSONArray("params").getJSONObject(0);
+
+        JSONObject result;
+        switch (method) {
+            case "did_resolveDID":
+                result = biography("did", params.getString("did"), dids, params.optBoolean("all", false));
+                break;
+            case "did_resolveCredential":
+                result = biography("id", params.getString("id"), credentials, true);
+                break;
+            default:
+                JSONObject error = new JSONObject();
+                error.put("code", -32601);
+                error.put("message", "Method not found: " + method);
+                return response(id).put("error", error).toString();
+        }
+
+        return response(id).put("result", result).toString();
+    }
+
+    private JSONObject biography(String idKey, String id, Map<String, History> histories, boolean all)
+            throws JSONException {
+        JSONObject r = new JSONObject();
+        r.put(idKey, id);
+
+        History history = histories.get(id);
+        if (history == null) {
+            r.put("status", STATUS_NOT_FOUND);
+            return r;
+        }
+
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        JSONArray transactions = new JSONArray();
+        for (Transaction transaction : history.transactions) {
+            transactions.put(transaction.toJson(dateFormat));
+            if (!all)
+                break;
+        }
+
+        r.put("status", history.status);
+        r.put("transaction", transactions);
+        return r;
+    }
+
+    private static JSONObject response(Object id) throws JSONException {
+        JSONObject r = new JSONObject();
+        r.put("id", id);
+        r.put("jsonrpc", "2.0");
+        return r;
+    }
+
+    private static History history(Map<String, History> histories, String id) {
+        History history = histories.get(id);
+        if (history == null) {
+            history = new History();
+            histories.put(id, history);
+        }
+        return history;
+    }
+
+    private String newTxid() {
+        byte[] bytes = new byte[32];
+        random.nextBytes(bytes);
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes)
+            sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+}
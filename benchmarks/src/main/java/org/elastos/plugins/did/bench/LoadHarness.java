@@ -0,0 +1,384 @@
+/*
+ * Copyright (c) 2021 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.plugins.did.bench;
+
+import org.elastos.did.DID;
+import org.elastos.did.DIDBackend;
+import org.elastos.did.DIDDocument;
+import org.elastos.did.Mnemonic;
+import org.elastos.did.VerifiableCredential;
+import org.elastos.plugins.did.DIDEngine;
+import org.elastos.plugins.did.StubChainDIDAdapter;
+
+import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Macro load test of the DID engine, the layer all plugin actions go through, against a local
+ * stub resolver and ID chain with injected latency and errors.
+ *
+ * Workloads:
+ * - resolve: remote resolves of published DIDs (resolve storm),
+ * - issue: credential issuance,
+ * - verify: presentation validity and genuineness checks,
+ * - publish: new DIDs created and published, through the ID transaction adapter,
+ * - mixed: all of them, weighted 50/15/25/10.
+ *
+ * Reports throughput and latency percentiles per operation, and the heap, thread and GC usage.
+ *
+ *   gradle loadTest -Pargs="--workload mixed --duration 60 --concurrency 32 --latency 80 --jitter 40 --error-rate 0.02"
+ */
+public final class LoadHarness {
+    private static final String STORE_ID = "loadtest";
+    private static final String STOREPASS = "loadtest-storepass";
+    private static final String[] CREDENTIAL_TYPES = { "BasicProfileCredential" };
+    private static final String CREDENTIAL_PROPERTIES = "{\"name\":\"Load test\",\"email\":\"load@example.com\"}";
+    private static final long SAMPLE_INTERVAL_MS = 250;
+
+    enum Operation {
+        RESOLVE(50),
+        ISSUE(15),
+        VERIFY(25),
+        PUBLISH(10);
+
+        final int weight;
+
+        Operation(int weight) {
+            this.weight = weight;
+        }
+    }
+
+    static class Options {
+        String workload = "mixed";
+        int durationSeconds = 30;
+        int warmupSeconds = 5;
+        int concurrency = 16;
+        int dids = 20;
+        long latencyMs = 50;
+        long jitterMs = 20;
+        double errorRate = 0.01;
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+            for (int i = 0; i < args.length; i++) {
+                String value = i + 1 < args.length ? args[i + 1] : null;
+                switch (args[i]) {
+                    case "--workload": options.workload = value; break;
+                    case "--duration": options.durationSeconds = Integer.parseInt(value); break;
+                    case "--warmup": options.warmupSeconds = Integer.parseInt(value); break;
+                    case "--concurrency": options.concurrency = Integer.parseInt(value); break;
+                    case "--dids": options.dids = Integer.parseInt(value); break;
+                    case "--latency": options.latencyMs = Long.parseLong(value); break;
+                    case "--jitter": options.jitterMs = Long.parseLong(value); break;
+                    case "--error-rate": options.errorRate = Double.parseDouble(value); break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+                i++;
+            }
+
+            if (!Arrays.asList("mixed", "resolve", "issue", "verify", "publish").contains(options.workload))
+                throw new IllegalArgumentException("Unknown workload " + options.workload);
+            return options;
+        }
+
+        List<Operation> operations() {
+            if (workload.equals("mixed"))
+                return Arrays.asList(Operation.values());
+            return Collections.singletonList(Operation.valueOf(workload.toUpperCase(Locale.US)));
+        }
+    }
+
+    /**
+     * Latencies of one operation recorded by one worker, in nanoseconds.
+     */
+    static class Recorder {
+        long[] latencies = new long[1024];
+        int count = 0;
+        long errors = 0;
+
+        void record(long nanos) {
+            if (count == latencies.length)
+                latencies = Arrays.copyOf(latencies, count * 2);
+            latencies[count++] = nanos;
+        }
+
+        void addAll(Recorder other) {
+            for (int i = 0; i < other.count; i++)
+                record(other.latencies[i]);
+            errors += other.errors;
+        }
+    }
+
+    private final Options options;
+    private final DIDEngine engine;
+    private String issuer;
+    private final List<String> holders = new ArrayList<>();
+    private final List<String> presentations = new ArrayList<>();
+    private final AtomicLong credentialCounter = new AtomicLong();
+
+    private LoadHarness(Options options, DIDEngine engine) {
+        this.options = options;
+        this.engine = engine;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args);
+
+        InMemoryIDChain chain = new InMemoryIDChain();
+        StubIDChainServer server = new StubIDChainServer(chain, Math.max(64, options.concurrency * 2));
+        server.start();
+
+        ExecutorService engineExecutor = Executors.newFixedThreadPool(4);
+        File dataDir = Files.createTempDirectory("did-loadtest").toFile();
+        try {
+            DIDBackend.initialize(new StubChainDIDAdapter(server.getResolverUrl(), server.getIdChainUrl()));
+            LoadHarness harness = new LoadHarness(options, new DIDEngine(dataDir, engineExecutor));
+
+            // Without faults, so that the setup is always complete.
+            long start = System.nanoTime();
+            harness.setUp();
+            System.out.printf(Locale.US, "Setup: %d DIDs published in %d ms%n", options.dids + 1,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+            server.setFaults(options.latencyMs, options.jitterMs, options.errorRate);
+            if (options.warmupSeconds > 0)
+                harness.run(options.warmupSeconds);
+
+            long requestsBefore = server.getRequestCount();
+            long errorsBefore = server.getInjectedErrorCount();
+            harness.report(harness.run(options.durationSeconds), server.getRequestCount() - requestsBefore,
+                    server.getInjectedErrorCount() - errorsBefore);
+        } finally {
+            server.stop();
+            engineExecutor.shutdownNow();
+            delete(dataDir);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Publishes an issuer and the holders, and a presentation of a credential for each holder.
+     */
+    private void setUp() throws Exception {
+        engine.openStore(STORE_ID);
+        engine.initRootIdentity(STORE_ID, Mnemonic.getInstance().generate(), "", true, STOREPASS);
+
+        List<DIDDocument> documents = engine.newDids(STORE_ID, options.dids + 1, STOREPASS);
+        for (DIDDocument document : documents)
+            document.publish(STOREPASS);
+
+        issuer = documents.get(0).getSubject().toString();
+        for (DIDDocument holder : documents.subList(1, documents.size())) {
+            String did = holder.getSubject().toString();
+            VerifiableCredential credential = engine.issueCredential(STORE_ID, issuer, did, "#profile",
+                    CREDENTIAL_TYPES, 30, CREDENTIAL_PROPERTIES, STOREPASS);
+            holders.add(did);
+            presentations.add(engine.createPresentation(STORE_ID, did, Collections.singletonList(credential),
+                    "loadtest-realm", "loadtest-nonce", STOREPASS).toString(true));
+        }
+    }
+
+    private static class Result {
+        final Map<Operation, Recorder> recorders = new EnumMap<>(Operation.class);
+        long elapsedNanos;
+        long peakHeapBytes;
+        int peakThreads;
+        long gcCount;
+        long gcTimeMs;
+    }
+
+    private Result run(int seconds) throws Exception {
+        List<Operation> operations = options.operations();
+        int totalWeight = 0;
+        for (Operation operation : operations)
+            totalWeight += operation.weight;
+        int weights = totalWeight;
+
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long gcCountBefore = gcCount();
+        long gcTimeBefore = gcTime();
+        threads.resetPeakThreadCount();
+
+        ExecutorService workers = Executors.newFixedThreadPool(options.concurrency);
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.SECONDS.toNanos(seconds);
+
+        List<Future<Map<Operation, Recorder>>> results = new ArrayList<>();
+        for (int i = 0; i < options.concurrency; i++) {
+            results.add(workers.submit(() -> {
+                Map<Operation, Recorder> recorders = new EnumMap<>(Operation.class);
+                for (Operation operation : operations)
+                    recorders.put(operation, new Recorder());
+
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (System.nanoTime() < deadline) {
+                    Operation operation = pick(operations, random.nextInt(weights));
+                    Recorder recorder = recorders.get(operation);
+                    long opStart = System.nanoTime();
+                    try {
+                        execute(operation, random);
+                        recorder.record(System.nanoTime() - opStart);
+                    } catch (Exception e) {
+                        recorder.errors++;
+                    }
+                }
+                return recorders;
+            }));
+        }
+
+        Result result = new Result();
+        while (!allDone(results)) {
+            result.peakHeapBytes = Math.max(result.peakHeapBytes, memory.getHeapMemoryUsage().getUsed());
+            Thread.sleep(SAMPLE_INTERVAL_MS);
+        }
+        result.elapsedNanos = System.nanoTime() - start;
+        result.peakThreads = threads.getPeakThreadCount();
+        result.gcCount = gcCount() - gcCountBefore;
+        result.gcTimeMs = gcTime() - gcTimeBefore;
+        workers.shutdown();
+
+        for (Operation operation : operations)
+            result.recorders.put(operation, new Recorder());
+        for (Future<Map<Operation, Recorder>> future : results) {
+            for (Map.Entry<Operation, Recorder> entry : future.get().entrySet())
+                result.recorders.get(entry.getKey()).addAll(entry.getValue());
+        }
+        return result;
+    }
+
+    private void execute(Operation operation, ThreadLocalRandom random) throws Exception {
+        switch (operation) {
+            case RESOLVE:
+                engine.resolve(new DID(holders.get(random.nextInt(holders.size()))), true);
+                break;
+            case ISSUE:
+                engine.issueCredential(STORE_ID, issuer, holders.get(random.nextInt(holders.size())),
+                        "#load-" + credentialCounter.incrementAndGet(), CREDENTIAL_TYPES, 30,
+                        CREDENTIAL_PROPERTIES, STOREPASS);
+                break;
+            case VERIFY: {
+                String presentation = presentations.get(random.nextInt(presentations.size()));
+                if (!engine.isPresentationValid(presentation) || !engine.isPresentationGenuine(presentation))
+                    throw new IllegalStateException("Presentation not verified");
+                break;
+            }
+            case PUBLISH:
+                engine.newDid(STORE_ID, STOREPASS).publish(STOREPASS);
+                break;
+        }
+    }
+
+    private static Operation pick(List<Operation> operations, int value) {
+        for (Operation operation : operations) {
+            if (value < operation.weight)
+                return operation;
+            value -= operation.weight;
+        }
+        return operations.get(operations.size() - 1);
+    }
+
+    private void report(Result result, long stubRequests, long stubErrors) {
+        double seconds = result.elapsedNanos / 1e9;
+
+        System.out.printf(Locale.US, "%nWorkload %s, %d workers, %.1f s, stub latency %d+%d ms, error rate %.3f%n",
+                options.workload, options.concurrency, seconds, options.latencyMs, options.jitterMs, options.errorRate);
+        System.out.printf(Locale.US, "%-10s %10s %8s %10s %9s %9s %9s %9s%n",
+                "operation", "ops", "errors", "ops/s", "p50 ms", "p95 ms", "p99 ms", "max ms");
+
+        long totalOps = 0;
+        for (Map.Entry<Operation, Recorder> entry : result.recorders.entrySet()) {
+            Recorder recorder = entry.getValue();
+            long[] sorted = Arrays.copyOf(recorder.latencies, recorder.count);
+            Arrays.sort(sorted);
+            totalOps += recorder.count;
+
+            System.out.printf(Locale.US, "%-10s %10d %8d %10.1f %9.2f %9.2f %9.2f %9.2f%n",
+                    entry.getKey().name().toLowerCase(Locale.US), recorder.count, recorder.errors,
+                    recorder.count / seconds, percentile(sorted, 0.50), percentile(sorted, 0.95),
+                    percentile(sorted, 0.99), percentile(sorted, 1.0));
+        }
+
+        System.out.printf(Locale.US, "%ntotal %.1f ops/s, stub requests %d (%d injected errors)%n",
+                totalOps / seconds, stubRequests, stubErrors);
+        System.out.printf(Locale.US, "peak heap %.1f MB, peak threads %d, GC %d collections, %d ms%n",
+                result.peakHeapBytes / (1024.0 * 1024.0), result.peakThreads, result.gcCount, result.gcTimeMs);
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0)
+            return 0;
+
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+
+    private static boolean allDone(List<? extends Future<?>> futures) {
+        for (Future<?> future : futures) {
+            if (!future.isDone())
+                return false;
+        }
+        return true;
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            count += Math.max(0, gc.getCollectionCount());
+        return count;
+    }
+
+    private static long gcTime() {
+        long time = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            time += Math.max(0, gc.getCollectionTime());
+        return time;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children)
+                delete(child);
+        }
+        file.delete();
+    }
+}
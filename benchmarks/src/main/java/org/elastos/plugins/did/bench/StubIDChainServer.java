@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2021 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.plugins.did.bench;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local HTTP resolver and ID chain endpoint over an InMemoryIDChain, with configurable latency
+ * and error injection:
+ * - POST /resolver: JSON-RPC resolve requests, as sent by the DID SDK,
+ * - POST /idchain: ID transaction payloads, as created when publishing.
+ *
+ * Each request waits latency plus a random part of jitter, then fails with HTTP 503 with the
+ * error rate probability.
+ */
+public class StubIDChainServer {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private interface Handler {
+        String handle(String body) throws Exception;
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    private volatile long latencyMs = 0;
+    private volatile long jitterMs = 0;
+    private volatile double errorRate = 0;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong injectedErrors = new AtomicLong();
+
+    /**
+     * @param threads Requests handled concurrently, injected latency included.
+     */
+    public StubIDChainServer(InMemoryIDChain chain, int threads) throws IOException {
+        executor = Executors.newFixedThreadPool(threads);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/resolver", exchange -> serve(exchange, chain::resolve));
+        server.createContext("/idchain", exchange -> serve(exchange, body -> {
+            chain.submit(body);
+            return "{}";
+        }));
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public void setFaults(long latencyMs, long jitterMs, double errorRate) {
+        this.latencyMs = latencyMs;
+        this.jitterMs = jitterMs;
+        this.errorRate = errorRate;
+    }
+
+    public URL getResolverUrl() throws IOException {
+        return new URL("http", "127.0.0.1", server.getAddress().getPort(), "/resolver");
+    }
+
+    public URL getIdChainUrl() throws IOException {
+        return new URL("http", "127.0.0.1", server.getAddress().getPort(), "/idchain");
+    }
+
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    public long getInjectedErrorCount() {
+        return injectedErrors.get();
+    }
+
+    private void serve(HttpExchange exchange, Handler handler) throws IOException {
+        try {
+            requests.incrementAndGet();
+            String body = new String(readFully(exchange.getRequestBody()), UTF8);
+
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long delay = latencyMs + (jitterMs > 0 ? random.nextLong(jitterMs + 1) : 0);
+            if (delay > 0)
+                Thread.sleep(delay);
+
+            if (random.nextDouble() < errorRate) {
+                injectedErrors.incrementAndGet();
+                respond(exchange, 503, "{\"error\":\"injected\"}");
+                return;
+            }
+
+            String response;
+            try {
+                response = handler.handle(body);
+            } catch (Exception e) {
+                respond(exchange, 400, "{\"error\":\"" + e.getClass().getSimpleName() + "\"}");
+                return;
+            }
+            respond(exchange, 200, response);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(UTF8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream os = exchange.getResponseBody();
+        os.write(bytes);
+        os.close();
+    }
+
+    private static byte[] readFully(InputStream is) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = is.read(buffer)) != -1)
+            out.write(buffer, 0, read);
+        is.close();
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2021 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package org.elastos.plugins.did;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs actions according to their priority, so that what the user waits for (signing a request,
+ * creating a token) doesn't wait for what runs in background (synchronization, bulk creation,
+ * store import or export).
+ *
+ * - Interactive actions are short crypto operations on documents already loaded, that at most read a
+ *   private key from their store. Actions that resolve, or write to the store, are not interactive
+ *   so that they can't hold the others. Interactive actions run on a few dedicated threads, and
+ *   never queue behind other work.
+ * - Background operations run on their own low priority threads. While interactive actions are
+ *   pending, they pause at their checkpoints (each DIDOperation.throwIfAborted() call), for at
+ *   most MAX_YIELD_MS at a time so that they still make progress under constant interactive use.
+ * - Other actions run as before.
+ */
+final class DIDActionScheduler {
+    enum Priority {
+        INTERACTIVE,
+        NORMAL,
+        BACKGROUND
+    }
+
+    static final long MAX_YIELD_MS = 1000;
+    private static final long YIELD_SLICE_MS = 50;
+    private static final int INTERACTIVE_THREADS = 2;
+    private static final int BACKGROUND_THREADS = 2;
+
+    private static final Set<String> interactiveActions = new HashSet<>(Arrays.asList(
+            "sign", "verify", "signDigest", "verifyDigestProof", "createJWT"
+    ));
+
+    private static final Set<String> backgroundActions = new HashSet<>(Arrays.asList(
+            "synchronize", "newDids", "exportStore", "importStore", "createJWTs", "signDigests",
+            "DIDStore_changePassword", "DIDStore_monitorExpirations"
+    ));
+
+    // On Android, Java priority NORM_PRIORITY + 1 is the foreground thread priority, and
+    // MIN_PRIORITY the lowest one.
+    private static final ExecutorService interactiveExecutor = Executors.newFixedThreadPool(INTERACTIVE_THREADS, r -> {
+        Thread t = new Thread(r, "DIDInteractive");
+        t.setDaemon(true);
+        t.setPriority(Thread.NORM_PRIORITY + 1);
+        return t;
+    });
+
+    private static final ExecutorService backgroundExecutor = Executors.newFixedThreadPool(BACKGROUND_THREADS, r -> {
+        Thread t = new Thread(r, "DIDBackground");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+
+    private static final Object lock = new Object();
+    private static int interactivePending = 0;
+    private static long yields = 0;
+    private static long yieldNanos = 0;
+
+    private DIDActionScheduler() {
+    }
+
+    static Priority getPriority(String action) {
+        if (interactiveActions.contains(action))
+            return Priority.INTERACTIVE;
+        if (backgroundActions.contains(action))
+            return Priority.BACKGROUND;
+        return Priority.NORMAL;
+    }
+
+    /**
+     * Executor for operations of this priority. Normal ones use the given default executor.
+     */
+    static ExecutorService getExecutor(Priority priority, ExecutorService defaultExecutor) {
+        switch (priority) {
+            case INTERACTIVE:
+                return interactiveExecutor;
+            case BACKGROUND:
+                return backgroundExecutor;
+            default:
+                return defaultExecutor;
+        }
+    }
+
+    /**
+     * Runs an interactive action on the interactive threads. Background operations give way
+     * from now until it is done.
+     */
+    static void runInteractive(Runnable action) {
+        synchronized (lock) {
+            interactivePending++;
+        }
+
+        interactiveExecutor.execute(() -> {
+            try {
+                action.run();
+            } finally {
+                synchronized (lock) {
+                    if (--interactivePending == 0)
+                        lock.notifyAll();
+                }
+            }
+        });
+    }
+
+    /**
+     * Called by background operations at their checkpoints: waits while interactive actions are
+     * pending, at most MAX_YIELD_MS, or until the operation is aborted.
+     */
+    static void yieldToInteractive(DIDOperation operation) {
+        synchronized (lock) {
+            if (interactivePending == 0)
+                return;
+
+            long start = System.nanoTime();
+            long deadline = start + TimeUnit.MILLISECONDS.toNanos(MAX_YIELD_MS);
+            try {
+                while (interactivePending > 0 && !operation.isAborted()) {
+                    long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                    if (remainingMs <= 0)
+                        break;
+                    lock.wait(Math.min(remainingMs, YIELD_SLICE_MS));
+                }
+            } catch (InterruptedException e) {
+                // Aborted: the caller finds out right after.
+                Thread.currentThread().interrupt();
+            }
+
+            yields++;
+            yieldNanos += System.nanoTime() - start;
+        }
+    }
+
+    static JSONObject toJson() throws JSONException {
+        synchronized (lock) {
+            JSONObject r = new JSONObject();
+            r.put("interactivePending", interactivePending);
+            r.put("backgroundYields", yields);
+            r.put("backgroundYieldMs", TimeUnit.NANOSECONDS.toMillis(yieldNanos));
+            return r;
+        }
+    }
+
+    static void resetStats() {
+        synchronized (lock) {
+            yields = 0;
+            yieldNanos = 0;
+        }
+    }
+}
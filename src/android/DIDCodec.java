@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2021 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.plugins.did;
+
+import org.elastos.did.crypto.Base64;
+import org.json.JSONObject;
+
+/**
+ * Hex and JWT payload conversions done for many actions. Kept free of any Cordova or Android
+ * dependency so that they can be benchmarked on a plain JVM.
+ */
+class DIDCodec {
+    static byte[] hex2byte(String inputString) {
+        if (inputString == null || inputString.length() < 2) {
+            return new byte[0];
+        }
+        int len = inputString.length() / 2;
+        byte[] result = new byte[len];
+        for (int i = 0; i < len; ++i) {
+            int high = Character.digit(inputString.charAt(2 * i), 16);
+            int low = Character.digit(inputString.charAt(2 * i + 1), 16);
+            if (high < 0 || low < 0)
+                throw new NumberFormatException("Invalid hex string: " + inputString);
+            result[i] = (byte) ((high << 4) | low);
+        }
+        return result;
+    }
+
+    static String byte2hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Payload of a JWT, without any verification.
+     */
+    static JSONObject parseJWTPayload(String jwt) throws Exception {
+        String[] splitToken = jwt.split("\\.");
+
+        if (splitToken.length < 2)
+            throw new Exception("Invalid JWT Token in parseJWT(): it contains only a header but no payload or signature");
+
+        String jwtPayload = splitToken[1];
+        byte[] b64PayloadBytes = Base64.decode(jwtPayload, Base64.URL_SAFE);
+        String b64Payload = new String(b64PayloadBytes, "UTF-8");
+
+        return new JSONObject(b64Payload);
+    }
+}
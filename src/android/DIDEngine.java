@@ -0,0 +1,1369 @@
+/*
+ * Copyright (c) 2021 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.plugins.did;
+
+import org.elastos.did.DID;
+import org.elastos.did.DIDBackend;
+import org.elastos.did.DIDDocument;
+import org.elastos.did.DIDStore;
+import org.elastos.did.DIDURL;
+import org.elastos.did.Issuer;
+import org.elastos.did.RootIdentity;
+import org.elastos.did.VerifiableCredential;
+import org.elastos.did.VerifiablePresentation;
+import org.elastos.did.exception.DIDException;
+import org.elastos.did.jwt.Claims;
+import org.elastos.did.jwt.ExpiredJwtException;
+import org.elastos.did.jwt.Header;
+import org.elastos.did.jwt.JwsHeader;
+import org.elastos.did.jwt.JwsSignatureException;
+import org.elastos.did.jwt.Jwt;
+import org.elastos.did.jwt.JwtBuilder;
+import org.elastos.did.jwt.JwtParserBuilder;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * The DID logic of the plugin, without any dependency on Cordova or Android: the registries of
+ * open stores, documents and issuers, resolution with the resolution policy, credential issuance,
+ * JWTs and presentations.
+ *
+ * DIDPlugin only converts action arguments and results for it. Other JVM code (a verification
+ * backend, a load test) can use it directly. All methods are thread-safe, the *Async() ones run on
+ * the engine executor.
+ *
+ * The DID backend is not initialized by the engine: the host does it once, with the adapter of its
+ * choice (DIDPlugin uses a DIDPluginAdapter, which adds the persistent resolve cache).
+ */
+public class DIDEngine {
+    public interface DocumentRefreshListener {
+        /**
+         * A stale document returned by resolve() was refreshed from the chain, and changed.
+         */
+        void onDocumentRefreshed(DID did, DIDDocument document);
+    }
+
+    public interface RenewalListener {
+        /**
+         * DIDs and credentials of monitored stores expire within the lead time, and should be
+         * renewed: { storeId, type (did or credential), id, expires (ms since epoch) } each.
+         *
+         * @return false if they could not be delivered. They are reported again later.
+         */
+        boolean onRenewalsDue(JSONArray due);
+    }
+
+    public interface ProgressListener {
+        void onProgress(int completed, int total);
+    }
+
+    /**
+     * Watches the files of an open store (DIDPlugin uses Android file observers).
+     */
+    public interface StoreWatcher {
+        interface Listener {
+            /**
+             * @param dids DIDs whose files changed, or null if the whole store may have changed.
+             */
+            void onStoreFilesChanged(String storeId, Set<String> dids);
+        }
+
+        void start();
+
+        void stop();
+    }
+
+    public interface StoreWatcherFactory {
+        StoreWatcher create(String storeId, File storeDir, StoreWatcher.Listener listener);
+    }
+
+    public static class Resolution {
+        public final DIDDocument document;
+        public final boolean stale;
+
+        Resolution(DIDDocument document, boolean stale) {
+            this.document = document;
+            this.stale = stale;
+        }
+    }
+
+    public static class PresentationCheck {
+        public final boolean valid;
+        public final boolean genuine;
+
+        PresentationCheck(boolean valid, boolean genuine) {
+            this.valid = valid;
+            this.genuine = genuine;
+        }
+    }
+
+    private static final long PASSWORD_CHANGE_PROGRESS_INTERVAL_MS = 250;
+
+    // An app sends the same few credentials and presentations again and again (login, sharing
+    // the same profile), and each entry holds a whole parsed object: a small cache is enough.
+    private static final int PARSE_CACHE_CAPACITY = 64;
+
+    // Bounded, as a batch of new DIDs can be hundreds of chain lookups.
+    private static final int DERIVATION_PARALLELISM = 6;
+    static final long MAX_JWT_VALIDITY_SECONDS = 365 * 24 * 60 * 60L;
+    // Registered JWS header parameters (RFC 7515), and compression, set by the JWT builder only
+    private static final Set<String> RESERVED_JWT_HEADERS = new HashSet<>(Arrays.asList(
+            "alg", "jku", "jwk", "kid", "x5u", "x5c", "x5t", "x5t#S256", "typ", "cty", "crit", "zip"
+    ));
+    // DIDs looked up at once by newDids(), half the default capacity of the DID SDK resolve cache.
+    private static final int PREFETCH_WINDOW = DIDBackend.DEFAULT_CACHE_MAX_CAPACITY / 2;
+    // DIDs derived by indexOf() before giving up
+    private static final int MAX_INDEX_SEARCH = 1000;
+    private static final ExecutorService derivationPool = Executors.newFixedThreadPool(DERIVATION_PARALLELISM, r -> {
+        Thread t = new Thread(r, "DIDEngineDerivation");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final File dataDir;
+    private final ExecutorService executor;
+    private final DIDStoreReclaimer reclaimer;
+
+    private final ConcurrentHashMap<String, DIDStore> stores = new ConcurrentHashMap<>();
+    // Root identity of each store, the one initialized last or else the store default one.
+    private final ConcurrentHashMap<String, RootIdentity> rootIdentities = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, DIDDocument> documents = new ConcurrentHashMap<>();
+    // Derivation index reached by the last newDids() batch of each root identity, by identity id
+    private final ConcurrentHashMap<String, Integer> derivationIndexes = new ConcurrentHashMap<>();
+    // Issuers of each store, by DID
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, Issuer>> issuers = new ConcurrentHashMap<>();
+    // Credentials loaded from each store, by long form id
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, VerifiableCredential>> credentials = new ConcurrentHashMap<>();
+    // Parsed credentials and presentations, by JSON digest
+    private final DIDObjectCache<VerifiableCredential> parsedCredentials =
+            new DIDObjectCache<>(PARSE_CACHE_CAPACITY, VerifiableCredential::fromJson);
+    private final DIDObjectCache<VerifiablePresentation> parsedPresentations =
+            new DIDObjectCache<>(PARSE_CACHE_CAPACITY, VerifiablePresentation::fromJson);
+    // Watchers of the files of open stores
+    private final ConcurrentHashMap<String, StoreWatcher> watchers = new ConcurrentHashMap<>();
+    private volatile StoreWatcherFactory storeWatcherFactory = null;
+    // Last known state of the files of each DID of open stores, by store then DID
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, Long>> fingerprints = new ConcurrentHashMap<>();
+    // Modification time of the data directory of open stores when last opened
+    private final ConcurrentHashMap<String, Long> dataDirStamps = new ConcurrentHashMap<>();
+    // Stores whose password is being changed
+    private final Set<String> passwordChanges = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    private volatile boolean staleWhileRevalidate = false;
+    private volatile DocumentRefreshListener documentRefreshListener = null;
+
+    private final DIDExpirationMonitor expirationMonitor = new DIDExpirationMonitor(this::onRenewalsDue);
+    private volatile RenewalListener renewalListener = null;
+
+    /**
+     * @param dataDir Directory under which each DID store gets its own directory.
+     * @param executor Runs the asynchronous methods and the background revalidations.
+     */
+    public DIDEngine(File dataDir, ExecutorService executor) {
+        this.dataDir = dataDir;
+        this.executor = executor;
+        this.reclaimer = new DIDStoreReclaimer(dataDir);
+    }
+
+    public <T> Future<T> submit(Callable<T> task) {
+        return executor.submit(task);
+    }
+
+    /**
+     * Forgets all open stores, documents, issuers and credentials.
+     */
+    public void reset() {
+        for (StoreWatcher watcher : watchers.values())
+            watcher.stop();
+        watchers.clear();
+        expirationMonitor.stopAll();
+        stores.clear();
+        rootIdentities.clear();
+        documents.clear();
+        derivationIndexes.clear();
+        issuers.clear();
+        credentials.clear();
+        fingerprints.clear();
+        dataDirStamps.clear();
+        parsedCredentials.clear();
+        parsedPresentations.clear();
+    }
+
+    // Stores
+
+    public File getStoreDataDir(String storeId) {
+        return new File(dataDir, storeId);
+    }
+
+    /**
+     * Without a factory (the default), store files are not watched, and the registries don't see
+     * changes made by other components.
+     */
+    public void setStoreWatcherFactory(StoreWatcherFactory factory) {
+        storeWatcherFactory = factory;
+    }
+
+    /**
+     * Opens a store, and watches its files so that the registries don't keep objects changed on
+     * disk by other components.
+     */
+    public DIDStore openStore(String storeId) throws DIDException {
+        DIDStore store = openUncached(storeId);
+        stores.put(storeId, store);
+        snapshotFiles(storeId);
+
+        StoreWatcherFactory factory = storeWatcherFactory;
+        if (factory != null) {
+            StoreWatcher watcher = factory.create(storeId, getStoreDataDir(storeId), this::onStoreFilesChanged);
+            StoreWatcher previous = watchers.put(storeId, watcher);
+            if (previous != null)
+                previous.stop();
+            watcher.start();
+        }
+
+        return store;
+    }
+
+    /**
+     * Open store with this id, or null.
+     */
+    public DIDStore getStore(String storeId) {
+        return stores.get(storeId);
+    }
+
+    /**
+     * Closes a store and deletes its files. Returns right away, the files are deleted in
+     * background, and a new store can be created with the same id immediately.
+     *
+     * @return The DIDs of the store, whose documents are not registered anymore.
+     */
+    public List<DID> deleteStore(String storeId) {
+        StoreWatcher watcher = watchers.remove(storeId);
+        if (watcher != null)
+            watcher.stop();
+        expirationMonitor.stop(storeId);
+
+        List<DID> dids = Collections.emptyList();
+        DIDStore store = stores.remove(storeId);
+        if (store != null) {
+            try {
+                dids = store.listDids();
+            } catch (DIDException e) {
+                // Documents of the store stay registered until the next reset.
+            }
+        }
+        for (DID did : dids)
+            documents.remove(did.toString());
+
+        rootIdentities.remove(storeId);
+        issuers.remove(storeId);
+        credentials.remove(storeId);
+        fingerprints.remove(storeId);
+        dataDirStamps.remove(storeId);
+
+        reclaimer.reclaim(getStoreDataDir(storeId));
+        return dids;
+    }
+
+    /**
+     * Brings the registries up to date after files of a store changed.
+     *
+     * Watchers report the writes of this engine and of the plugin as well as those of other
+     * components: the files of each DID are compared with their last known state (see
+     * noteOwnWrite()), and only the DIDs whose files changed since are handled, by dropping their
+     * issuers and credentials and reloading their documents. The store itself is opened again only
+     * if its data directory was swapped (password change or import by another component), as the
+     * store then has a new metadata file and possibly new root identities.
+     */
+    private void onStoreFilesChanged(String storeId, Set<String> dids) {
+        DIDStore store = stores.get(storeId);
+        // The password change reports the whole store as changed when done.
+        if (store == null || passwordChanges.contains(storeId))
+            return;
+
+        if (dids == null && isDataDirSwapped(storeId)) {
+            reopenStore(storeId, store);
+            return;
+        }
+
+        Set<String> changed = updateFingerprints(storeId, dids);
+        if (changed.isEmpty())
+            return;
+
+        Map<String, Issuer> storeIssuers = issuers.get(storeId);
+        Map<String, VerifiableCredential> storeCredentials = credentials.get(storeId);
+        for (String did : changed) {
+            if (storeIssuers != null)
+                storeIssuers.remove(did);
+            if (storeCredentials != null)
+                storeCredentials.keySet().removeIf(id -> id.startsWith(did + "#"));
+        }
+
+        reloadDocuments(store, changed);
+
+        try {
+            expirationMonitor.refresh(storeId, store, changed);
+        } catch (DIDException e) {
+            // Indexed again on the next change.
+        }
+    }
+
+    private void reopenStore(String storeId, DIDStore previous) {
+        DIDStore store;
+        try {
+            store = openUncached(storeId);
+        } catch (DIDException e) {
+            // Still being written, the next change will come.
+            return;
+        }
+
+        // Closed or opened again meanwhile.
+        if (!stores.replace(storeId, previous, store))
+            return;
+
+        snapshotFiles(storeId);
+
+        RootIdentity identity = rootIdentities.get(storeId);
+        if (identity != null) {
+            try {
+                RootIdentity reloaded = store.loadRootIdentity(identity.getId());
+                if (reloaded != null)
+                    rootIdentities.replace(storeId, identity, reloaded);
+                else
+                    rootIdentities.remove(storeId, identity);
+            } catch (DIDException e) {
+                rootIdentities.remove(storeId, identity);
+            }
+        }
+
+        issuers.remove(storeId);
+        credentials.remove(storeId);
+        reloadDocuments(store, new ArrayList<>(documents.keySet()));
+
+        try {
+            expirationMonitor.refresh(storeId, store, null);
+        } catch (DIDException e) {
+            // Indexed again on the next change.
+        }
+    }
+
+    /**
+     * Reloads the registered documents of these DIDs that the store has. Documents of other
+     * stores and resolved documents are left alone.
+     */
+    private void reloadDocuments(DIDStore store, Iterable<String> dids) {
+        for (String did : dids) {
+            DIDDocument document = documents.get(did);
+            if (document == null)
+                continue;
+
+            try {
+                if (store.containsDid(did)) {
+                    DIDDocument reloaded = store.loadDid(did);
+                    if (reloaded != null)
+                        documents.replace(did, document, reloaded);
+                }
+            } catch (DIDException e) {
+                documents.remove(did, document);
+            }
+        }
+    }
+
+    /**
+     * The DID SDK store caches what it loads, and its cache can't be invalidated per DID. Stores
+     * are opened without it: the registries of the engine cache the documents, issuers,
+     * credentials and root identities, and a DID changed on disk only needs its entries dropped.
+     */
+    private DIDStore openUncached(String storeId) throws DIDException {
+        return DIDStore.open(getStoreDataDir(storeId), 0, 0);
+    }
+
+    /**
+     * Records the files of a DID as written by this engine or by the plugin, so that the store
+     * watcher report of that write doesn't drop the registered objects.
+     *
+     * @param id DID, or DID URL of a credential, whose files were written. Null if the whole
+     *           store was written (import).
+     */
+    public void noteOwnWrite(String storeId, String id) {
+        if (!stores.containsKey(storeId))
+            return;
+
+        if (id == null) {
+            snapshotFiles(storeId);
+            return;
+        }
+
+        stampDataDir(storeId);
+        int fragment = id.indexOf('#');
+        String did = fragment >= 0 ? id.substring(0, fragment) : id;
+        updateFingerprints(storeId, Collections.singleton(did));
+    }
+
+    private File getDataDir(String storeId) {
+        return new File(getStoreDataDir(storeId), "data");
+    }
+
+    // The DID SDK file system storage keeps the files of each DID in data/ids/<method specific id>.
+    private File getDidDir(String storeId, String did) {
+        return new File(new File(getDataDir(storeId), "ids"), did.substring(did.lastIndexOf(':') + 1));
+    }
+
+    /**
+     * Records the modification time of the data directory after writes of this engine, which
+     * change it when adding the first root identity or DID.
+     */
+    private void stampDataDir(String storeId) {
+        dataDirStamps.put(storeId, getDataDir(storeId).lastModified());
+    }
+
+    private boolean isDataDirSwapped(String storeId) {
+        Long stamp = dataDirStamps.get(storeId);
+        return stamp == null || stamp != getDataDir(storeId).lastModified();
+    }
+
+    /**
+     * Records the current state of the data directory and of the files of all DIDs of a store.
+     */
+    private void snapshotFiles(String storeId) {
+        stampDataDir(storeId);
+        fingerprints.put(storeId, new ConcurrentHashMap<>());
+        updateFingerprints(storeId, null);
+    }
+
+    /**
+     * Records the current state of the files of these DIDs, all DIDs of the store if null.
+     *
+     * @return The DIDs whose files changed since their last known state.
+     */
+    private Set<String> updateFingerprints(String storeId, Set<String> dids) {
+        ConcurrentHashMap<String, Long> storeFingerprints = fingerprints.get(storeId);
+        if (storeFingerprints == null)
+            return Collections.emptySet();
+
+        Set<String> candidates = dids;
+        if (candidates == null) {
+            candidates = new HashSet<>(storeFingerprints.keySet());
+            String[] names = new File(getDataDir(storeId), "ids").list();
+            if (names != null) {
+                for (String name : names)
+                    candidates.add("did:elastos:" + name);
+            }
+        }
+
+        Set<String> changed = new HashSet<>();
+        for (String did : candidates) {
+            long fingerprint = fingerprint(getDidDir(storeId, did));
+            Long known = fingerprint != 0 ? storeFingerprints.put(did, fingerprint) : storeFingerprints.remove(did);
+            if (known == null ? fingerprint != 0 : known != fingerprint)
+                changed.add(did);
+        }
+        return changed;
+    }
+
+    /**
+     * Names, sizes and modification times of a file tree, 0 if it doesn't exist.
+     */
+    private static long fingerprint(File file) {
+        if (!file.exists())
+            return 0;
+
+        long hash = 31 * file.getName().hashCode() + file.lastModified();
+        File[] children = file.listFiles();
+        if (children != null) {
+            Arrays.sort(children);
+            for (File child : children)
+                hash = 31 * hash + fingerprint(child);
+        }
+        else {
+            hash = 31 * hash + file.length();
+        }
+        return hash;
+    }
+
+    /**
+     * Changes the password of a store, reporting progress to the listener while the store is
+     * re-encrypted. Blocks until done.
+     *
+     * The DID SDK re-encrypts a copy of the store (data.journal) and swaps it in only once
+     * complete, finishing the swap when the store is opened again if it was interrupted. So the
+     * store is never left half migrated: an interrupted change leaves the old password valid
+     * and must be started again. Progress is the number of files in that copy, out of the number
+     * of files in the store.
+     */
+    public void changePassword(String storeId, String oldPassword, String newPassword,
+                               ProgressListener listener) throws DIDException {
+        DIDStore store = stores.get(storeId);
+        if (!passwordChanges.add(storeId))
+            throw new IllegalStateException("The password of DID store " + storeId + " is already being changed");
+
+        File storeDir = getStoreDataDir(storeId);
+        File dataDir = new File(storeDir, "data");
+        File journalDir = new File(storeDir, "data.journal");
+        int total = countFiles(dataDir);
+
+        Object done = new Object();
+        boolean[] finished = { false };
+        executor.execute(() -> {
+            synchronized (done) {
+                while (!finished[0]) {
+                    listener.onProgress(Math.min(countFiles(journalDir), total), total);
+                    try {
+                        done.wait(PASSWORD_CHANGE_PROGRESS_INTERVAL_MS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        });
+
+        try {
+            store.changePassword(oldPassword, newPassword);
+        } finally {
+            synchronized (done) {
+                finished[0] = true;
+                done.notifyAll();
+            }
+            passwordChanges.remove(storeId);
+            reopenStore(storeId, store);
+        }
+
+        listener.onProgress(total, total);
+    }
+
+    private static int countFiles(File file) {
+        if (!file.isDirectory())
+            return file.exists() ? 1 : 0;
+
+        File[] children = file.listFiles();
+        if (children == null)
+            return 0;
+
+        int count = 0;
+        for (File child : children)
+            count += countFiles(child);
+        return count;
+    }
+
+    /**
+     * Exports a whole store (root identities, DIDs with their credentials and private keys) to a
+     * zip file, encrypted with the given export password.
+     *
+     * The DID SDK writes one zip entry per identity and per DID, streamed to the file, so memory
+     * use doesn't depend on the store size. The archive is written next to the target and only
+     * renamed to it once complete. Progress is reported after each entry.
+     */
+    public void exportStore(String storeId, File file, String password, String storepass,
+                            ProgressListener listener) throws DIDException, IOException {
+        DIDStore store = stores.get(storeId);
+        int total = store.listRootIdentities().size() + store.listDids().size();
+
+        File partial = new File(file.getPath() + ".partial");
+        boolean done = false;
+        try {
+            try (FileChannel channel = new FileOutputStream(partial).getChannel();
+                 ProgressZipOutputStream out = new ProgressZipOutputStream(
+                         new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024), total, listener)) {
+                listener.onProgress(0, total);
+                store.exportStore(out, password, storepass);
+                out.finish();
+                channel.force(true);
+            }
+
+            if (!partial.renameTo(file))
+                throw new IOException("Unable to move the export to " + file);
+            done = true;
+        } finally {
+            if (!done)
+                partial.delete();
+        }
+
+        listener.onProgress(total, total);
+    }
+
+    /**
+     * Imports an archive made by exportStore() into a store, streaming it from the file.
+     */
+    public void importStore(String storeId, File file, String password, String storepass,
+                            ProgressListener listener) throws DIDException, IOException {
+        DIDStore store = stores.get(storeId);
+
+        int total;
+        // Only reads the zip central directory.
+        try (ZipFile zip = new ZipFile(file)) {
+            total = zip.size();
+        }
+
+        try (FileChannel channel = new FileInputStream(file).getChannel();
+             ProgressZipInputStream in = new ProgressZipInputStream(
+                     new BufferedInputStream(Channels.newInputStream(channel), 64 * 1024), total, listener)) {
+            listener.onProgress(0, total);
+            store.importStore(in, password, storepass);
+        }
+
+        // The store may have got its first root identity.
+        rootIdentities.remove(storeId);
+        noteOwnWrite(storeId, null);
+        listener.onProgress(total, total);
+    }
+
+    /**
+     * Reports progress each time an entry is complete, and stops the export if the running
+     * operation was aborted.
+     */
+    private static class ProgressZipOutputStream extends ZipOutputStream {
+        private final int total;
+        private final ProgressListener listener;
+        private int completed = 0;
+
+        ProgressZipOutputStream(OutputStream out, int total, ProgressListener listener) {
+            super(out);
+            this.total = total;
+            this.listener = listener;
+        }
+
+        @Override
+        public void putNextEntry(ZipEntry entry) throws IOException {
+            DIDOperation operation = DIDOperation.current();
+            if (operation != null)
+                operation.throwIfAborted();
+
+            super.putNextEntry(entry);
+        }
+
+        @Override
+        public void closeEntry() throws IOException {
+            super.closeEntry();
+            listener.onProgress(Math.min(++completed, total), total);
+        }
+    }
+
+    private static class ProgressZipInputStream extends ZipInputStream {
+        private final int total;
+        private final ProgressListener listener;
+        private int started = 0;
+
+        ProgressZipInputStream(InputStream in, int total, ProgressListener listener) {
+            super(in);
+            this.total = total;
+            this.listener = listener;
+        }
+
+        @Override
+        public ZipEntry getNextEntry() throws IOException {
+            DIDOperation operation = DIDOperation.current();
+            if (operation != null)
+                operation.throwIfAborted();
+
+            // Moving to the next entry means the previous one was imported.
+            if (started > 0)
+                listener.onProgress(Math.min(started, total), total);
+
+            ZipEntry entry = super.getNextEntry();
+            if (entry != null)
+                started++;
+            return entry;
+        }
+    }
+
+    // Root identities
+
+    /**
+     * Creates or imports a root identity in a store, and makes it the one new DIDs of this store
+     * are derived from.
+     */
+    public RootIdentity initRootIdentity(String storeId, String mnemonic, String passphrase,
+                                         boolean overwrite, String storepass) throws DIDException {
+        RootIdentity identity = RootIdentity.create(mnemonic, passphrase, overwrite, stores.get(storeId), storepass);
+        stampDataDir(storeId);
+        rootIdentities.put(storeId, identity);
+        return identity;
+    }
+
+    /**
+     * Root identity new DIDs of this store are derived from, or null if the store has none.
+     */
+    public RootIdentity getRootIdentity(String storeId) throws DIDException {
+        RootIdentity identity = rootIdentities.get(storeId);
+        if (identity != null)
+            return identity;
+
+        identity = stores.get(storeId).loadRootIdentity();
+        if (identity == null)
+            return null;
+
+        RootIdentity previous = rootIdentities.putIfAbsent(storeId, identity);
+        return previous != null ? previous : identity;
+    }
+
+    /**
+     * Derives the next DID of the store root identity, stores it and registers its document.
+     */
+    public DIDDocument newDid(String storeId, String storepass) throws DIDException {
+        DIDDocument document = requireRootIdentity(storeId).newDid(storepass);
+        noteOwnWrite(storeId, document.getSubject().toString());
+        putDocument(document);
+        return document;
+    }
+
+    /**
+     * Derives the next count DIDs of the store root identity, stores them and registers their
+     * documents. The DIDs created before an abort are registered as well.
+     *
+     * Creating a DID checks on chain that it isn't published yet. Those lookups are done in
+     * parallel up front, window by window, so that the creations, which must follow the identity
+     * index one by one, are then served from the DID SDK resolve cache. Windows are smaller than
+     * that cache, so that their lookups are still there when the DIDs are created.
+     */
+    public List<DIDDocument> newDids(String storeId, int count, String storepass) throws DIDException, InterruptedException {
+        if (count <= 0)
+            throw new IllegalArgumentException("Invalid DID count: " + count);
+
+        RootIdentity identity = requireRootIdentity(storeId);
+        List<DIDDocument> documents = new ArrayList<>(count);
+
+        try {
+            // No other DID can be derived from this identity while the batch is created.
+            synchronized (identity) {
+                DIDDocument first = identity.newDid(storepass);
+                documents.add(first);
+
+                // Without the index, the DIDs are still created, only without prefetching.
+                int nextIndex = indexOf(identity, first.getSubject()) + 1;
+
+                while (documents.size() < count) {
+                    int window = Math.min(count - documents.size(), PREFETCH_WINDOW);
+                    if (nextIndex > 0) {
+                        prefetch(identity, nextIndex, window);
+                        nextIndex += window;
+                    }
+
+                    for (int i = 0; i < window; i++) {
+                        DIDOperation operation = DIDOperation.current();
+                        if (operation != null && operation.isAborted())
+                            throw new InterruptedException("newDids aborted after " + documents.size() + " DIDs");
+
+                        documents.add(identity.newDid(storepass));
+                    }
+                }
+
+                if (nextIndex > 0)
+                    derivationIndexes.put(identity.getId(), nextIndex);
+            }
+        } finally {
+            // Those DIDs are in the store even if the batch is not complete.
+            for (DIDDocument document : documents) {
+                noteOwnWrite(storeId, document.getSubject().toString());
+                putDocument(document);
+            }
+        }
+
+        return documents;
+    }
+
+    private RootIdentity requireRootIdentity(String storeId) throws DIDException {
+        RootIdentity identity = getRootIdentity(storeId);
+        if (identity == null)
+            throw new IllegalStateException("DID store " + storeId + " has no root identity");
+        return identity;
+    }
+
+    /**
+     * Index of a DID derived from this identity, or -1 if it's not one of the MAX_INDEX_SEARCH
+     * DIDs following the index reached by the last batch. DIDs are public derivations, so this
+     * doesn't need the store password.
+     */
+    private int indexOf(RootIdentity identity, DID did) {
+        int from = derivationIndexes.getOrDefault(identity.getId(), 0);
+        for (int index = from; index < from + MAX_INDEX_SEARCH; index++) {
+            if (identity.getDid(index).equals(did))
+                return index;
+        }
+        return -1;
+    }
+
+    /**
+     * Resolves the DIDs at the given indexes in parallel, to load them in the DID SDK cache.
+     */
+    private static void prefetch(RootIdentity identity, int fromIndex, int count) throws DIDException, InterruptedException {
+        DIDOperation operation = DIDOperation.current();
+
+        List<Future<DIDDocument>> results = new ArrayList<>(count);
+        try {
+            for (int i = 0; i < count; i++) {
+                DID did = identity.getDid(fromIndex + i);
+                results.add(derivationPool.submit(() -> DIDOperation.callAs(operation, did::resolve)));
+            }
+
+            for (Future<DIDDocument> result : results) {
+                try {
+                    result.get();
+                } catch (ExecutionException e) {
+                    // Creating this DID resolves it again, and reports the error.
+                }
+            }
+        } finally {
+            for (Future<?> result : results)
+                result.cancel(false);
+        }
+    }
+
+    // Documents
+
+    /**
+     * Last known document of this DID, or null.
+     */
+    public DIDDocument getDocument(String did) {
+        return documents.get(did);
+    }
+
+    public void putDocument(DIDDocument document) {
+        documents.put(document.getSubject().toString(), document);
+    }
+
+    /**
+     * Loads a DID document from a store and registers it. Returns null if the store doesn't have it.
+     */
+    public DIDDocument loadDid(String storeId, String did) throws DIDException {
+        DIDStore store = stores.get(storeId);
+        DIDDocument document;
+        DIDTracer.Span diskSpan = DIDTracer.begin("loadDid.load", DIDTracer.DISK);
+        try {
+            document = store.loadDid(did);
+        } finally {
+            diskSpan.end();
+        }
+
+        if (document != null)
+            putDocument(document);
+
+        return document;
+    }
+
+    // Resolution
+
+    /**
+     * With the stale-while-revalidate policy, resolve() returns cached documents right away, even
+     * expired ones, and refreshes them in background.
+     */
+    public void setStaleWhileRevalidate(boolean enable) {
+        staleWhileRevalidate = enable;
+    }
+
+    public void setDocumentRefreshListener(DocumentRefreshListener listener) {
+        documentRefreshListener = listener;
+    }
+
+    /**
+     * Resolves a DID according to the current resolution policy. With the stale-while-revalidate
+     * policy, a cached document is returned right away even if expired (or if a remote resolve
+     * is forced). It's then flagged as stale, and refreshed from the chain in background.
+     */
+    public Resolution resolve(DID did, boolean forceRemote) throws DIDException {
+        boolean allowStale = staleWhileRevalidate;
+        DIDDocument document;
+        boolean stale;
+        try {
+            DIDResolveFlags.takeServedStale();
+            DIDResolveFlags.setForceRemote(forceRemote);
+            DIDResolveFlags.setAllowStale(allowStale);
+            DIDTracer.Span networkSpan = DIDTracer.begin("resolveDid", DIDTracer.NETWORK);
+            try {
+                document = did.resolve(forceRemote);
+            } finally {
+                networkSpan.end();
+            }
+            stale = DIDResolveFlags.takeServedStale();
+        } finally {
+            DIDResolveFlags.setForceRemote(false);
+            DIDResolveFlags.setAllowStale(false);
+        }
+
+        if (stale)
+            revalidateInBackground(did, document);
+
+        return new Resolution(document, stale);
+    }
+
+    public Future<Resolution> resolveAsync(DID did, boolean forceRemote) {
+        return executor.submit(() -> resolve(did, forceRemote));
+    }
+
+    /**
+     * Resolves a DID from the chain to refresh a stale document, and lets the listener know if the
+     * document changed. On failure the stale document stays cached, the next resolve tries again.
+     */
+    private void revalidateInBackground(DID did, DIDDocument staleDocument) {
+        executor.execute(() -> {
+            try {
+                DIDDocument freshDocument;
+                try {
+                    DIDResolveFlags.setForceRemote(true);
+                    freshDocument = did.resolve(true);
+                } finally {
+                    DIDResolveFlags.setForceRemote(false);
+                }
+
+                String staleJson = staleDocument != null ? staleDocument.toString(true) : null;
+                String freshJson = freshDocument != null ? freshDocument.toString(true) : null;
+                if (freshJson == null || freshJson.equals(staleJson))
+                    return;
+
+                documents.replace(did.toString(), freshDocument);
+
+                DocumentRefreshListener listener = documentRefreshListener;
+                if (listener != null)
+                    listener.onDocumentRefreshed(did, freshDocument);
+            }
+            catch (DIDException e) {
+                // Keep the stale document
+            }
+        });
+    }
+
+    // Expirations
+
+    public void setRenewalListener(RenewalListener listener) {
+        renewalListener = listener;
+    }
+
+    /**
+     * Reports right away the DIDs and credentials due that could not be delivered so far.
+     */
+    public void deliverDueRenewals() {
+        expirationMonitor.deliverDue();
+    }
+
+    /**
+     * Starts reporting the DIDs and credentials of a store that expire within leadDays, to the
+     * renewal listener. Indexes the whole store, and blocks until done. Monitoring continues
+     * until the store is deleted, and follows the changes made to the store files.
+     */
+    public void monitorExpirations(String storeId, int leadDays) throws DIDException {
+        expirationMonitor.monitor(storeId, stores.get(storeId), getStoreDataDir(storeId), TimeUnit.DAYS.toMillis(leadDays));
+    }
+
+    public void stopMonitoringExpirations(String storeId) {
+        expirationMonitor.stop(storeId);
+    }
+
+    /**
+     * Monitored DIDs and credentials of a store, soonest expiring first.
+     */
+    public JSONArray getExpirations(String storeId) throws JSONException {
+        return expirationMonitor.toJson(storeId);
+    }
+
+    private boolean onRenewalsDue(JSONArray due) {
+        RenewalListener listener = renewalListener;
+        return listener != null && listener.onRenewalsDue(due);
+    }
+
+    // Credentials
+
+    /**
+     * Credential parsed from this JSON. Credentials sent several times are parsed once, and the
+     * same object is returned to all callers: only for read-only uses (verification, presentation
+     * creation). Use parseCredentialForStore() for a credential given to a store.
+     */
+    public VerifiableCredential parseCredential(String credentialJson) throws DIDException {
+        return parsedCredentials.get(credentialJson);
+    }
+
+    /**
+     * Credential freshly parsed from this JSON, to be stored, directly or in a document. The DID
+     * SDK store changes the credentials it stores: it merges their metadata and attaches them to
+     * itself.
+     */
+    public VerifiableCredential parseCredentialForStore(String credentialJson) throws DIDException {
+        return VerifiableCredential.fromJson(credentialJson);
+    }
+
+    /**
+     * Issues a credential with the given DID of the store. Issuers are kept, so that the issuer
+     * document is only loaded once.
+     *
+     * @param credentialId Credential id, long (did:elastos:abc#key) or short (#key) form.
+     */
+    public VerifiableCredential issueCredential(String storeId, String issuerDid, String subjectDid,
+                                                String credentialId, String[] types, int days,
+                                                String propertiesJson, String storepass) throws DIDException {
+        DID subject = new DID(subjectDid);
+
+        Map<String, Issuer> storeIssuers = issuers.get(storeId);
+        Issuer issuer = storeIssuers != null ? storeIssuers.get(issuerDid) : null;
+        if (issuer == null) {
+            DIDTracer.Span diskSpan = DIDTracer.begin("CreateCredential.loadIssuer", DIDTracer.DISK);
+            try {
+                issuer = prepareIssuer(storeId, issuerDid);
+            } finally {
+                diskSpan.end();
+            }
+        }
+
+        Calendar cal = Calendar.getInstance();
+        cal.add(Calendar.DATE, days);
+        Date expire = cal.getTime();
+
+        // Sealing decrypts the issuer private key and signs the credential.
+        DIDTracer.Span cryptoSpan = DIDTracer.begin("CreateCredential.seal", DIDTracer.CRYPTO);
+        try {
+            return issuer.issueFor(subject)
+                    .id(getDidUrlFragment(credentialId))
+                    .types(types)
+                    .expirationDate(expire)
+                    .properties(propertiesJson)
+                    .seal(storepass);
+        } finally {
+            cryptoSpan.end();
+        }
+    }
+
+    public Issuer prepareIssuer(String storeId, String issuerDid) throws DIDException {
+        Issuer issuer = new Issuer(new DID(issuerDid), stores.get(storeId));
+        ConcurrentHashMap<String, Issuer> storeIssuers = issuers.get(storeId);
+        if (storeIssuers == null) {
+            ConcurrentHashMap<String, Issuer> created = new ConcurrentHashMap<>();
+            storeIssuers = issuers.putIfAbsent(storeId, created);
+            if (storeIssuers == null)
+                storeIssuers = created;
+        }
+        storeIssuers.put(issuerDid, issuer);
+        return issuer;
+    }
+
+    /**
+     * Converts long or short form DIDURL into the a fragment only.
+     * did:elastos:abcdef#my-key -> my-key
+     * #my-key -> my-key
+     */
+    static String getDidUrlFragment(String didUrl) {
+        if (didUrl.indexOf("#") == 0)
+            return didUrl.substring(1);
+        else if (didUrl.contains("#"))
+            return didUrl.substring(didUrl.indexOf("#")+1);
+        else
+            return didUrl;
+    }
+
+    // JWT
+
+    /**
+     * Creates a JWT signed by a registered document, with the given claims, valid for the given
+     * number of days.
+     */
+    public String createJWT(String did, String claimsJson, int days, String storepass) throws DIDException {
+        DIDDocument document = documents.get(did);
+
+        JwsHeader header = JwtBuilder.createJwsHeader();
+        header.setType(Header.JWT_TYPE)
+                .setContentType("json");
+
+        Calendar cal = Calendar.getInstance();
+        cal.set(Calendar.MILLISECOND, 0);
+        Date iat = cal.getTime();
+        cal.add(Calendar.DATE, days);
+        Date exp = cal.getTime();
+
+        Claims body = JwtBuilder.createClaims();
+        body.setIssuer(did)
+                .setIssuedAt(iat)
+                .setExpiration(exp)
+                .putAllWithJson(claimsJson);
+
+        return document.jwtBuilder()
+                .setHeader(header)
+                .setClaims(body)
+                .sign(storepass)
+                .compact();
+    }
+
+    /**
+     * Creates one JWT per claim set, all signed by the same registered document, with the same
+     * header and validity. The header and dates are built once for all tokens, and tokens are
+     * signed in parallel. Tokens are returned in the order of the claim sets.
+     *
+     * @param headerFields Header fields added to the JWT type and content type. String, number
+     *                     and boolean values only, and no registered JWS header parameter.
+     * @param validitySeconds From 1 second to MAX_JWT_VALIDITY_SECONDS.
+     */
+    public List<String> createJWTs(String did, JSONObject headerFields, long validitySeconds,
+                                   List<String> claimsJson, String storepass) throws Exception {
+        if (validitySeconds <= 0 || validitySeconds > MAX_JWT_VALIDITY_SECONDS)
+            throw new IllegalArgumentException("Invalid JWT validity: " + validitySeconds + " seconds");
+
+        DIDDocument document = documents.get(did);
+
+        // Only read by the builders, which copy it.
+        Map<String, Object> header = new HashMap<>();
+        header.put(Header.TYPE, Header.JWT_TYPE);
+        header.put(Header.CONTENT_TYPE, "json");
+        Iterator<String> keys = headerFields.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            if (RESERVED_JWT_HEADERS.contains(key))
+                throw new IllegalArgumentException("JWT header " + key + " can't be set");
+
+            Object value = headerFields.get(key);
+            if (!(value instanceof String || value instanceof Number || value instanceof Boolean))
+                throw new IllegalArgumentException("Unsupported value for JWT header " + key);
+            header.put(key, value);
+        }
+
+        long now = System.currentTimeMillis() / 1000 * 1000;
+        Date iat = new Date(now);
+        Date exp = new Date(now + validitySeconds * 1000);
+
+        // Each token checks that the operation is not aborted before being signed.
+        DIDOperation operation = DIDOperation.current();
+
+        List<Future<String>> results = new ArrayList<>(claimsJson.size());
+        try {
+            for (String claims : claimsJson) {
+                results.add(derivationPool.submit(() -> DIDOperation.callAs(operation, () -> {
+                    DIDTracer.Span cryptoSpan = DIDTracer.begin("createJWTs.sign", DIDTracer.CRYPTO);
+                    try {
+                        Claims body = JwtBuilder.createClaims();
+                        body.setIssuer(did)
+                                .setIssuedAt(iat)
+                                .setExpiration(exp)
+                                .putAllWithJson(claims);
+
+                        return document.jwtBuilder()
+                                .setHeader(header)
+                                .setClaims(body)
+                                .sign(storepass)
+                                .compact();
+                    } finally {
+                        cryptoSpan.end();
+                    }
+                })));
+            }
+
+            List<String> tokens = new ArrayList<>(results.size());
+            for (Future<String> result : results) {
+                try {
+                    tokens.add(result.get());
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+            }
+            return tokens;
+        } finally {
+            for (Future<?> result : results)
+                result.cancel(false);
+        }
+    }
+
+    /**
+     * Parses a JWT, and if asked to, verifies its signature, which resolves the issuer DID.
+     *
+     * Returns { signatureIsValid, payload, errorReason? }. The payload is returned even if the
+     * signature is not valid: the caller decides whether to use it or not.
+     */
+    public JSONObject parseJWT(String jwt, boolean verifySignature) throws Exception {
+        JSONObject r = new JSONObject();
+
+        if (!verifySignature) {
+            // The DID SDK parser can't be used, as it forces signature verification.
+            r.put("signatureIsValid", false);
+            r.put("payload", DIDCodec.parseJWTPayload(jwt));
+            return r;
+        }
+
+        try {
+            Jwt parsedAndVerifiedJwt = new JwtParserBuilder().build().parse(jwt);
+            Claims claims = (Claims) parsedAndVerifiedJwt.getBody();
+
+            r.put("signatureIsValid", true);
+            r.put("payload", new JSONObject(claims));
+        } catch (JwsSignatureException e) {
+            r.put("signatureIsValid", false);
+            r.put("payload", DIDCodec.parseJWTPayload(jwt));
+            r.put("errorReason", "DID not found on chain, or invalid signature");
+        } catch (ExpiredJwtException e) {
+            r.put("signatureIsValid", false);
+            r.put("payload", DIDCodec.parseJWTPayload(jwt));
+            r.put("errorReason", "JWT token is expired");
+        } catch (IllegalArgumentException e) {
+            r.put("signatureIsValid", false);
+            r.put("payload", DIDCodec.parseJWTPayload(jwt));
+            r.put("errorReason", "Illegal argument. It's possible that the JWT signature information is incorrect (no signing key information)");
+        }
+        return r;
+    }
+
+    public Future<JSONObject> parseJWTAsync(String jwt, boolean verifySignature) {
+        return executor.submit(() -> parseJWT(jwt, verifySignature));
+    }
+
+    // Credentials
+
+    /**
+     * Registers a credential of a store, so that presentations can refer to it by id.
+     */
+    public void putCredential(String storeId, VerifiableCredential credential) {
+        ConcurrentHashMap<String, VerifiableCredential> storeCredentials = credentials.get(storeId);
+        if (storeCredentials == null) {
+            ConcurrentHashMap<String, VerifiableCredential> created = new ConcurrentHashMap<>();
+            storeCredentials = credentials.putIfAbsent(storeId, created);
+            if (storeCredentials == null)
+                storeCredentials = created;
+        }
+        storeCredentials.put(credential.getId().toString(), credential);
+    }
+
+    /**
+     * @param credentialId Long form credential id.
+     */
+    public void removeCredential(String storeId, String credentialId) {
+        Map<String, VerifiableCredential> storeCredentials = credentials.get(storeId);
+        if (storeCredentials != null)
+            storeCredentials.remove(credentialId);
+    }
+
+    /**
+     * Credential of a store, from the registry, or else loaded from the store and registered.
+     *
+     * @param credentialId Credential id, long (did:elastos:abc#key) or short (#key) form, relative
+     *                     to the given DID.
+     * @return The credential, or null if the store doesn't have it.
+     */
+    public VerifiableCredential getCredential(String storeId, String did, String credentialId) throws DIDException {
+        DIDURL id = new DIDURL(new DID(did), credentialId);
+
+        Map<String, VerifiableCredential> storeCredentials = credentials.get(storeId);
+        VerifiableCredential credential = storeCredentials != null ? storeCredentials.get(id.toString()) : null;
+        if (credential == null) {
+            DIDTracer.Span diskSpan = DIDTracer.begin("loadCredential", DIDTracer.DISK);
+            try {
+                credential = stores.get(storeId).loadCredential(id);
+            } finally {
+                diskSpan.end();
+            }
+            if (credential != null)
+                putCredential(storeId, credential);
+        }
+        return credential;
+    }
+
+    // Presentations
+
+    public VerifiablePresentation createPresentation(String storeId, String did, List<VerifiableCredential> credentials,
+                                                     String realm, String nonce, String storepass) throws DIDException {
+        return VerifiablePresentation.createFor(new DID(did), stores.get(storeId))
+                .credentials(credentials.toArray(new VerifiableCredential[0]))
+                .nonce(nonce)
+                .realm(realm)
+                .seal(storepass);
+    }
+
+    /**
+     * Presentation parsed from this JSON. Presentations sent several times are parsed once.
+     */
+    public VerifiablePresentation parsePresentation(String presentationJson) throws DIDException {
+        return parsedPresentations.get(presentationJson);
+    }
+
+    public boolean isPresentationValid(String presentationJson) throws DIDException {
+        return parsePresentation(presentationJson).isValid();
+    }
+
+    public boolean isPresentationGenuine(String presentationJson) throws DIDException {
+        return parsePresentation(presentationJson).isGenuine();
+    }
+
+    /**
+     * Checks both the validity and the genuineness of a presentation, parsing it only once.
+     */
+    public Future<PresentationCheck> verifyPresentationAsync(String presentationJson) {
+        return executor.submit(() -> {
+            VerifiablePresentation presentation = parsePresentation(presentationJson);
+            return new PresentationCheck(presentation.isValid(), presentation.isGenuine());
+        });
+    }
+
+    // Metrics
+
+    public JSONObject getCredentialCacheMetrics() throws JSONException {
+        return parsedCredentials.toJson();
+    }
+
+    public JSONObject getPresentationCacheMetrics() throws JSONException {
+        return parsedPresentations.toJson();
+    }
+
+    public void resetCacheStats() {
+        parsedCredentials.resetStats();
+        parsedPresentations.resetStats();
+    }
+
+    public int getStoreCount() {
+        return stores.size();
+    }
+
+    public int getDocumentCount() {
+        return documents.size();
+    }
+
+    public int getIssuerCount() {
+        int count = 0;
+        for (Map<String, Issuer> storeIssuers : issuers.values())
+            count += storeIssuers.size();
+        return count;
+    }
+}
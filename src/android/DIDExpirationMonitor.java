@@ -0,0 +1,371 @@
+/*
+ * Copyright (c) 2021 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package org.elastos.plugins.did;
+
+import org.elastos.did.DID;
+import org.elastos.did.DIDDocument;
+import org.elastos.did.DIDStore;
+import org.elastos.did.DIDURL;
+import org.elastos.did.VerifiableCredential;
+import org.elastos.did.exception.DIDException;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps track of the expiration of the DIDs and credentials of monitored stores, and reports the
+ * ones to renew a lead time before they expire, so that renewals can be done in background instead
+ * of when a user action finds an expired DID.
+ *
+ * Each DID and credential is reported once per expiration date: renewing it (a new expiration
+ * date) makes it due again later. Everything due at the same time is reported in one batch.
+ * Items count as reported only once the listener delivered them, and what was reported is saved in
+ * the store directory (REPORTED_FILE), so that it's not reported again after a restart.
+ */
+class DIDExpirationMonitor {
+    static final String DID_ITEM = "did";
+    static final String CREDENTIAL_ITEM = "credential";
+
+    static final String REPORTED_FILE = "reported-renewals.json";
+
+    interface Listener {
+        /**
+         * @param due { storeId, type, id, expires } of the DIDs and credentials to renew.
+         * @return false if they could not be delivered (no one to deliver them to yet).
+         */
+        boolean onRenewalsDue(JSONArray due);
+    }
+
+    private static class Item {
+        final String type;
+        final String id;
+        final String did;
+        final long expires;
+        boolean reported = false;
+
+        Item(String type, String id, String did, long expires) {
+            this.type = type;
+            this.id = id;
+            this.did = did;
+            this.expires = expires;
+        }
+
+        JSONObject toJson(String storeId) throws JSONException {
+            JSONObject r = new JSONObject();
+            r.put("storeId", storeId);
+            r.put("type", type);
+            r.put("id", id);
+            r.put("expires", expires);
+            return r;
+        }
+    }
+
+    // The scheduler clock doesn't run while the device sleeps, so a check scheduled days ahead
+    // would be late by the sleep time: checks are at most this far apart, and compare with the
+    // wall clock.
+    static final long MAX_CHECK_DELAY_MS = TimeUnit.HOURS.toMillis(1);
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "DIDExpirationMonitor");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Listener listener;
+    // Items of each monitored store, by DID or credential id
+    private final Map<String, Map<String, Item>> stores = new HashMap<>();
+    private final Map<String, Long> leadTimes = new HashMap<>();
+    private final Map<String, File> reportedFiles = new HashMap<>();
+    private ScheduledFuture<?> nextCheck = null;
+
+    DIDExpirationMonitor(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Indexes all DIDs and credentials of a store, and starts reporting those expiring within
+     * leadMs. Reads the whole store: not to be called on the UI thread.
+     *
+     * @param storeDir Directory of the store, where what was reported is saved.
+     */
+    void monitor(String storeId, DIDStore store, File storeDir, long leadMs) throws DIDException {
+        List<Item> items = index(store, null);
+        File reportedFile = new File(storeDir, REPORTED_FILE);
+        Map<String, Long> reported = readReported(reportedFile);
+        synchronized (this) {
+            leadTimes.put(storeId, leadMs);
+            reportedFiles.put(storeId, reportedFile);
+            // Monitoring a store again keeps what was already reported.
+            boolean first = !stores.containsKey(storeId);
+            if (first)
+                stores.put(storeId, new HashMap<>());
+            merge(storeId, null, items);
+
+            if (first) {
+                for (Item item : stores.get(storeId).values()) {
+                    Long expires = reported.get(item.id);
+                    if (expires != null && expires == item.expires)
+                        item.reported = true;
+                }
+            }
+        }
+        check();
+    }
+
+    synchronized void stop(String storeId) {
+        stores.remove(storeId);
+        leadTimes.remove(storeId);
+        reportedFiles.remove(storeId);
+    }
+
+    synchronized void stopAll() {
+        stores.clear();
+        leadTimes.clear();
+        reportedFiles.clear();
+    }
+
+    /**
+     * Reports the items due now. To call when there is someone to deliver them to again.
+     */
+    void deliverDue() {
+        check();
+    }
+
+    synchronized boolean isMonitored(String storeId) {
+        return stores.containsKey(storeId);
+    }
+
+    /**
+     * Indexes again the given DIDs of a monitored store, with their credentials.
+     *
+     * @param dids Changed DIDs, or null for the whole store.
+     */
+    void refresh(String storeId, DIDStore store, Set<String> dids) throws DIDException {
+        if (!isMonitored(storeId))
+            return;
+
+        List<Item> items = index(store, dids);
+        synchronized (this) {
+            if (!stores.containsKey(storeId))
+                return;
+            merge(storeId, dids, items);
+        }
+        check();
+    }
+
+    /**
+     * Monitored items of a store, soonest expiring first.
+     */
+    synchronized JSONArray toJson(String storeId) throws JSONException {
+        JSONArray r = new JSONArray();
+        Map<String, Item> items = stores.get(storeId);
+        if (items == null)
+            return r;
+
+        List<Item> sorted = new ArrayList<>(items.values());
+        Collections.sort(sorted, (a, b) -> Long.compare(a.expires, b.expires));
+        for (Item item : sorted)
+            r.put(item.toJson(storeId));
+        return r;
+    }
+
+    private static List<Item> index(DIDStore store, Set<String> dids) throws DIDException {
+        List<Item> items = new ArrayList<>();
+
+        List<DID> storeDids = store.listDids();
+        for (DID did : storeDids) {
+            String didString = did.toString();
+            if (dids != null && !dids.contains(didString))
+                continue;
+
+            DIDDocument document = store.loadDid(did);
+            if (document != null && document.getExpires() != null)
+                items.add(new Item(DID_ITEM, didString, didString, document.getExpires().getTime()));
+
+            for (DIDURL id : store.listCredentials(did)) {
+                VerifiableCredential credential = store.loadCredential(id);
+                Date expires = credential != null ? credential.getExpirationDate() : null;
+                if (expires != null)
+                    items.add(new Item(CREDENTIAL_ITEM, id.toString(), didString, expires.getTime()));
+            }
+        }
+
+        return items;
+    }
+
+    private void merge(String storeId, Set<String> dids, List<Item> items) {
+        Map<String, Item> previous = stores.get(storeId);
+        Map<String, Item> merged = new HashMap<>();
+        if (dids != null) {
+            for (Item item : previous.values()) {
+                if (!dids.contains(item.did))
+                    merged.put(item.id, item);
+            }
+        }
+
+        // Items not renewed since they were reported are not reported again.
+        for (Item item : items) {
+            Item old = previous.get(item.id);
+            if (old != null && old.expires == item.expires)
+                item.reported = old.reported;
+            merged.put(item.id, item);
+        }
+
+        stores.put(storeId, merged);
+    }
+
+    /**
+     * Reports the items due, and schedules the next check for the next item to become due, or in
+     * MAX_CHECK_DELAY_MS if that is later or if items due could not be delivered.
+     */
+    private void check() {
+        long now = System.currentTimeMillis();
+        long next = Long.MAX_VALUE;
+        JSONArray due = new JSONArray();
+        // Items due, by store then id, with their expiration date when due
+        Map<String, Map<String, Long>> dueItems = new HashMap<>();
+
+        synchronized (this) {
+            try {
+                for (Map.Entry<String, Map<String, Item>> store : stores.entrySet()) {
+                    long leadMs = leadTimes.get(store.getKey());
+                    for (Item item : store.getValue().values()) {
+                        if (item.reported)
+                            continue;
+
+                        long dueAt = item.expires - leadMs;
+                        if (dueAt <= now) {
+                            due.put(item.toJson(store.getKey()));
+                            if (!dueItems.containsKey(store.getKey()))
+                                dueItems.put(store.getKey(), new HashMap<>());
+                            dueItems.get(store.getKey()).put(item.id, item.expires);
+                            next = Math.min(next, now + MAX_CHECK_DELAY_MS);
+                        }
+                        else {
+                            next = Math.min(next, dueAt);
+                        }
+                    }
+                }
+            } catch (JSONException e) {
+                // Can't happen with string and number values.
+            }
+
+            if (nextCheck != null)
+                nextCheck.cancel(false);
+            nextCheck = next != Long.MAX_VALUE ?
+                    scheduler.schedule(this::check, Math.min(next - now, MAX_CHECK_DELAY_MS), TimeUnit.MILLISECONDS) : null;
+        }
+
+        if (due.length() == 0 || !listener.onRenewalsDue(due))
+            return;
+
+        synchronized (this) {
+            for (Map.Entry<String, Map<String, Long>> store : dueItems.entrySet()) {
+                Map<String, Item> items = stores.get(store.getKey());
+                if (items == null)
+                    continue;
+
+                // Items changed meanwhile are left to the next check.
+                for (Map.Entry<String, Long> dueItem : store.getValue().entrySet()) {
+                    Item item = items.get(dueItem.getKey());
+                    if (item != null && item.expires == dueItem.getValue())
+                        item.reported = true;
+                }
+
+                Map<String, Long> reported = new HashMap<>();
+                for (Item item : items.values()) {
+                    if (item.reported)
+                        reported.put(item.id, item.expires);
+                }
+                writeReported(reportedFiles.get(store.getKey()), reported);
+            }
+        }
+    }
+
+    /**
+     * Expiration dates of the items reported, by id, saved by writeReported(). Empty if the file
+     * doesn't exist or is not readable.
+     */
+    private static Map<String, Long> readReported(File file) {
+        Map<String, Long> reported = new HashMap<>();
+        if (!file.exists())
+            return reported;
+
+        try (InputStream in = new FileInputStream(file)) {
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1)
+                content.write(buffer, 0, read);
+
+            JSONObject json = new JSONObject(new String(content.toByteArray(), UTF8));
+            Iterator<String> ids = json.keys();
+            while (ids.hasNext()) {
+                String id = ids.next();
+                reported.put(id, json.getLong(id));
+            }
+        } catch (IOException | JSONException e) {
+            // Reported again: better twice than never.
+            reported.clear();
+        }
+        return reported;
+    }
+
+    private static void writeReported(File file, Map<String, Long> reported) {
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            try (OutputStream out = new FileOutputStream(tmp)) {
+                out.write(new JSONObject(reported).toString().getBytes(UTF8));
+            }
+            if (!tmp.renameTo(file))
+                tmp.delete();
+        } catch (IOException e) {
+            // Reported again after a restart.
+            tmp.delete();
+        }
+    }
+}
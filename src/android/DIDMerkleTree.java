@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2021 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package org.elastos.plugins.did;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * SHA-256 Merkle tree over a list of digests, so that a whole batch is attested by signing its
+ * root only, each item coming with a proof of inclusion in the signed root.
+ *
+ * Leaves are hashed as SHA-256(0x00 | digest) and nodes as SHA-256(0x01 | left | right), so that
+ * a node can't be passed off as a leaf. The last node of a level with an odd number of nodes is
+ * moved up as is. A proof is the list of the sibling hashes from the leaf up, levels where the
+ * node had no sibling being skipped: the item index and the item count tell which ones.
+ *
+ * The signature is not over the root itself, which could be the digest of anything else signed
+ * with the same key, but over SHA-256("DIDMerkleBatch" | count | root), count being 4 bytes big
+ * endian.
+ */
+class DIDMerkleTree {
+    private static final byte LEAF_PREFIX = 0;
+    private static final byte NODE_PREFIX = 1;
+    private static final byte[] BATCH_DOMAIN = "DIDMerkleBatch".getBytes(Charset.forName("UTF-8"));
+
+    // levels[0] holds the leaf hashes, the last level the root.
+    private final List<byte[][]> levels = new ArrayList<>();
+
+    DIDMerkleTree(List<byte[]> digests) {
+        if (digests.isEmpty())
+            throw new IllegalArgumentException("No digest to build a Merkle tree from");
+
+        byte[][] level = new byte[digests.size()][];
+        for (int i = 0; i < level.length; i++)
+            level[i] = hash(LEAF_PREFIX, digests.get(i), null);
+        levels.add(level);
+
+        while (level.length > 1) {
+            byte[][] parents = new byte[(level.length + 1) / 2][];
+            for (int i = 0; i < parents.length; i++) {
+                int left = 2 * i;
+                parents[i] = left + 1 < level.length ?
+                        hash(NODE_PREFIX, level[left], level[left + 1]) : level[left];
+            }
+            levels.add(parents);
+            level = parents;
+        }
+    }
+
+    byte[] getRoot() {
+        return levels.get(levels.size() - 1)[0];
+    }
+
+    int getCount() {
+        return levels.get(0).length;
+    }
+
+    /**
+     * Digest to sign to attest the batch.
+     */
+    byte[] getSignedDigest() {
+        return signedDigest(getRoot(), getCount());
+    }
+
+    /**
+     * Digest signed to attest a batch of count items with this root.
+     */
+    static byte[] signedDigest(byte[] root, int count) {
+        try {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            sha256.update(BATCH_DOMAIN);
+            sha256.update(ByteBuffer.allocate(4).putInt(count).array());
+            sha256.update(root);
+            return sha256.digest();
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform has SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Sibling hashes from the leaf of this item up to the root.
+     */
+    List<byte[]> getProof(int index) {
+        List<byte[]> proof = new ArrayList<>();
+        for (int l = 0; l < levels.size() - 1; l++) {
+            byte[][] level = levels.get(l);
+            int sibling = index ^ 1;
+            if (sibling < level.length)
+                proof.add(level[sibling]);
+            index >>= 1;
+        }
+        return proof;
+    }
+
+    /**
+     * Root of the tree the item belongs to according to its proof, or null if the proof doesn't
+     * have the shape expected for this index and count.
+     */
+    static byte[] computeRoot(byte[] digest, int index, int count, List<byte[]> proof) {
+        if (index < 0 || index >= count)
+            return null;
+
+        byte[] node = hash(LEAF_PREFIX, digest, null);
+        int used = 0;
+        for (int size = count; size > 1; size = (size + 1) / 2) {
+            int sibling = index ^ 1;
+            if (sibling < size) {
+                if (used >= proof.size())
+                    return null;
+
+                byte[] siblingHash = proof.get(used++);
+                node = (index & 1) == 0 ?
+                        hash(NODE_PREFIX, node, siblingHash) : hash(NODE_PREFIX, siblingHash, node);
+            }
+            index >>= 1;
+        }
+
+        return used == proof.size() ? node : null;
+    }
+
+    private static byte[] hash(byte prefix, byte[] first, byte[] second) {
+        try {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            sha256.update(prefix);
+            sha256.update(first);
+            if (second != null)
+                sha256.update(second);
+            return sha256.digest();
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform has SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2021 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package org.elastos.plugins.did;
+
+import org.elastos.did.exception.DIDException;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of objects parsed from JSON, keyed by the SHA-256 digest of the JSON, so that
+ * the same credential or presentation sent again by the app is not parsed again.
+ *
+ * Only meant for objects that don't change once parsed (credentials, presentations), and cached
+ * objects are shared by all callers: they must only be read. A DID store changes the credentials
+ * it stores, so those must be parsed on their own. The least recently used objects are dropped
+ * first.
+ */
+class DIDObjectCache<T> {
+    interface Parser<T> {
+        T parse(String json) throws DIDException;
+    }
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final Parser<T> parser;
+    private final Map<String, T> objects;
+    private long hits = 0;
+    private long misses = 0;
+
+    DIDObjectCache(int capacity, Parser<T> parser) {
+        this.parser = parser;
+        this.objects = new LinkedHashMap<String, T>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, T> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Object parsed from this JSON, from the cache or else parsed and cached. Parsing happens
+     * outside of the cache lock, so the same JSON may be parsed twice by concurrent calls.
+     */
+    T get(String json) throws DIDException {
+        String key = digest(json);
+
+        synchronized (this) {
+            T object = objects.get(key);
+            if (object != null) {
+                hits++;
+                return object;
+            }
+            misses++;
+        }
+
+        T object = parser.parse(json);
+        synchronized (this) {
+            objects.put(key, object);
+        }
+        return object;
+    }
+
+    synchronized void clear() {
+        objects.clear();
+    }
+
+    synchronized JSONObject toJson() throws JSONException {
+        JSONObject r = new JSONObject();
+        r.put("entries", objects.size());
+        r.put("hits", hits);
+        r.put("misses", misses);
+        long lookups = hits + misses;
+        r.put("hitRatio", lookups > 0 ? (double) hits / lookups : 0);
+        return r;
+    }
+
+    synchronized void resetStats() {
+        hits = 0;
+        misses = 0;
+    }
+
+    private static String digest(String json) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(json.getBytes(UTF8));
+            StringBuilder sb = new StringBuilder(hash.length * 2);
+            for (byte b : hash)
+                sb.append(String.format("%02x", b));
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform has SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+}
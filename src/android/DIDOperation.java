@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2021 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.plugins.did;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A long running action that can be cancelled by the app, or aborted when its deadline is over.
+ *
+ * Aborting an operation interrupts its thread and runs its cancel hooks, through which blocking
+ * network calls register themselves (the resolver transport disconnects its connection), so the
+ * worker thread and the socket are released right away. The abort listener reports the abort to
+ * the app immediately; whatever the operation returns after that is ignored by Cordova, as its
+ * callback is already finished.
+ *
+ * The running operation is attached to its thread, so that code deep in the call stack (the
+ * resolver transport, the synchronizer) can find it with current().
+ *
+ * Background operations give way to interactive actions at their checkpoints, the
+ * throwIfAborted() calls. See DIDActionScheduler.
+ */
+class DIDOperation {
+    enum AbortReason {
+        CANCELLED,
+        TIMED_OUT
+    }
+
+    interface Body {
+        void run(DIDOperation operation) throws Exception;
+    }
+
+    interface AbortListener {
+        void onAbort(DIDOperation operation, AbortReason reason);
+    }
+
+    private static final ThreadLocal<DIDOperation> current = new ThreadLocal<>();
+    private static final ConcurrentHashMap<Integer, DIDOperation> active = new ConcurrentHashMap<>();
+    // Ids chosen by the app are positive, ids of operations started without one are negative.
+    private static final AtomicInteger nextInternalId = new AtomicInteger(0);
+
+    private static final ScheduledExecutorService deadlines = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "DIDOperationDeadlines");
+        t.setDaemon(true);
+        return t;
+    });
+
+    final int id;
+    final String name;
+    private final long deadlineNanos;
+    private final boolean background;
+    private final AbortListener abortListener;
+    private final List<Runnable> cancelHooks = new ArrayList<>();
+    private volatile AbortReason abortReason = null;
+    private Future<?> future = null;
+    private ScheduledFuture<?> deadlineTask = null;
+
+    private DIDOperation(int id, String name, long timeoutMs, boolean background, AbortListener abortListener) {
+        this.id = id;
+        this.name = name;
+        this.deadlineNanos = timeoutMs > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs) : 0;
+        this.background = background;
+        this.abortListener = abortListener;
+    }
+
+    /**
+     * Runs body on the executor as a new operation.
+     *
+     * @param id Operation id chosen by the app, or 0 to not make the operation cancellable by id.
+     * @param timeoutMs Operation deadline, or 0 for no deadline.
+     * @param background True if the operation gives way to interactive actions.
+     */
+    static DIDOperation start(int id, String name, long timeoutMs, boolean background, ExecutorService executor,
+                              Body body, AbortListener abortListener) {
+        int operationId = id > 0 ? id : nextInternalId.decrementAndGet();
+        DIDOperation operation = new DIDOperation(operationId, name, timeoutMs, background, abortListener);
+
+        DIDOperation previous = active.put(operationId, operation);
+        if (previous != null)
+            previous.abort(AbortReason.CANCELLED);
+
+        synchronized (operation) {
+            operation.future = executor.submit(() -> {
+                current.set(operation);
+                try {
+                    if (!operation.isAborted())
+                        body.run(operation);
+                    return null;
+                } finally {
+                    current.remove();
+                    operation.finish();
+                }
+            });
+
+            if (timeoutMs > 0)
+                operation.deadlineTask = deadlines.schedule(() -> operation.abort(AbortReason.TIMED_OUT), timeoutMs, TimeUnit.MILLISECONDS);
+        }
+
+        return operation;
+    }
+
+    /**
+     * Cancels the running operation with the given id. Returns false if there is none.
+     */
+    static boolean cancel(int id) {
+        DIDOperation operation = active.get(id);
+        return operation != null && operation.abort(AbortReason.CANCELLED);
+    }
+
+    /**
+     * Operation running on the current thread, or null.
+     */
+    static DIDOperation current() {
+        return current.get();
+    }
+
+    /**
+     * Runs callable on the current thread as part of the given operation. Used to carry the
+     * operation over to helper threads.
+     */
+    static <T> T callAs(DIDOperation operation, Callable<T> callable) throws Exception {
+        DIDOperation previous = current.get();
+        if (operation != null)
+            current.set(operation);
+        try {
+            if (operation != null)
+                operation.throwIfAborted();
+            return callable.call();
+        } finally {
+            if (previous != null)
+                current.set(previous);
+            else
+                current.remove();
+        }
+    }
+
+    boolean isAborted() {
+        return abortReason != null;
+    }
+
+    AbortReason getAbortReason() {
+        return abortReason;
+    }
+
+    void throwIfAborted() throws InterruptedIOException {
+        if (background)
+            DIDActionScheduler.yieldToInteractive(this);
+
+        if (abortReason != null)
+            throw new InterruptedIOException("Operation " + name + " " + (abortReason == AbortReason.TIMED_OUT ? "timed out" : "cancelled"));
+    }
+
+    /**
+     * Time left before the deadline, in milliseconds (at least 1), or -1 if there is no deadline.
+     */
+    long remainingMs() {
+        if (deadlineNanos == 0)
+            return -1;
+
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime()));
+    }
+
+    /**
+     * Registers a hook run if the operation is aborted. Run right away if it already is.
+     */
+    void addCancelHook(Runnable hook) {
+        synchronized (this) {
+            if (abortReason == null) {
+                cancelHooks.add(hook);
+                return;
+            }
+        }
+        hook.run();
+    }
+
+    synchronized void removeCancelHook(Runnable hook) {
+        cancelHooks.remove(hook);
+    }
+
+    private boolean abort(AbortReason reason) {
+        List<Runnable> hooks;
+        synchronized (this) {
+            if (abortReason != null || future == null || future.isDone())
+                return false;
+
+            abortReason = reason;
+            hooks = new ArrayList<>(cancelHooks);
+            cancelHooks.clear();
+            if (deadlineTask != null)
+                deadlineTask.cancel(false);
+        }
+
+        for (Runnable hook : hooks)
+            hook.run();
+        future.cancel(true);
+        active.remove(id, this);
+
+        abortListener.onAbort(this, reason);
+        return true;
+    }
+
+    private void finish() {
+        synchronized (this) {
+            cancelHooks.clear();
+            if (deadlineTask != null)
+                deadlineTask.cancel(false);
+        }
+        active.remove(id, this);
+    }
+}
@@ -25,12 +25,16 @@ package org.elastos.plugins.did;
 import java.io.File;
 import java.net.URI;
 import java.util.ArrayList;
-import java.util.Calendar;
-import java.util.Date;
+import java.util.Collections;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 
 import org.apache.cordova.CallbackContext;
 import org.apache.cordova.CordovaPlugin;
@@ -41,32 +45,20 @@ import org.elastos.did.DIDDocument;
 import org.elastos.did.DIDStore;
 import org.elastos.did.DIDURL;
 import org.elastos.did.Features;
-import org.elastos.did.Issuer;
 import org.elastos.did.Mnemonic;
-import org.elastos.did.RootIdentity;
 import org.elastos.did.VerifiableCredential;
 import org.elastos.did.VerifiablePresentation;
-import org.elastos.did.crypto.Base64;
 import org.elastos.did.exception.DIDException;
 import org.elastos.did.exception.DIDResolveException;
 import org.elastos.did.exception.DIDStoreException;
 import org.elastos.did.exception.MalformedDocumentException;
 import org.elastos.did.exception.WrongPasswordException;
-import org.elastos.did.jwt.Claims;
-import org.elastos.did.jwt.ExpiredJwtException;
-import org.elastos.did.jwt.Header;
-import org.elastos.did.jwt.JwsHeader;
-import org.elastos.did.jwt.JwsSignatureException;
-import org.elastos.did.jwt.Jwt;
-import org.elastos.did.jwt.JwtBuilder;
-import org.elastos.did.jwt.JwtParserBuilder;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import android.annotation.SuppressLint;
 import android.content.Context;
-import android.os.AsyncTask;
+import android.os.Process;
 import android.util.Log;
 
 /**
@@ -76,19 +68,53 @@ public class DIDPlugin extends CordovaPlugin {
     private static String TAG = "DIDPlugin";
 
     private static final int IDTRANSACTION  = 1;
+    private static final int DOCUMENTREFRESH = 2;
+    private static final int STORECHANGE = 3;
+    private static final int RENEWALDUE = 4;
+
+    private static final String RESOLUTION_POLICY_NETWORK_FIRST = "NETWORK_FIRST";
+    private static final String RESOLUTION_POLICY_STALE_WHILE_REVALIDATE = "STALE_WHILE_REVALIDATE";
 
     private static String s_didResolverUrl = "https://api.elastos.io/eid";
+    private static boolean s_resolverHedging = false;
+    // Shared by successive adapters so that pooled connections and settings survive resolver changes.
+    private static final DIDResolverTransport s_resolverTransport = new DIDResolverTransport();
+    private static DIDResolverEndpoints s_resolverEndpoints =
+            new DIDResolverEndpoints(Collections.singletonList(s_didResolverUrl), s_resolverTransport);
+    // Persistent resolve cache, available once the plugin has been initialized with a context.
+    private static DIDResolveCache s_resolveCache = null;
 
     private CallbackContext idTransactionCC  = null;
+    private CallbackContext documentRefreshCC = null;
+    private CallbackContext storeChangeCC = null;
+    // Set on the Cordova thread, used by the expiration monitor thread.
+    private volatile CallbackContext renewalDueCC = null;
+    private final DIDStoreChangeNotifier storeChanges = new DIDStoreChangeNotifier(this::onStoreChanges);
 
     public static DIDPluginAdapter globalDidAdapter = null;
 
-    private HashMap<String, DIDDocument> mDocumentMap;
-    private HashMap<String, DID> mDIDMap;
-    private HashMap<Integer, DIDDocument.PublicKey> mPublicKeyMap;
+    private static final Object backendLock = new Object();
+    private static volatile boolean backendInitialized = false;
+    // Time spent in DIDBackend setup, and time added by this plugin to the app startup.
+    private static long backendInitDurationMs = -1;
+    private static long pluginStartupDurationMs = -1;
+
+    // Actions that never touch the DID backend, so they don't have to wait for its initialization.
+    private static final Set<String> backendFreeActions = new HashSet<>(Arrays.asList(
+            "getVersion", "setListener", "enableJsonLdContext", "reset", "generateMnemonic",
+            "isMnemonicValid", "setResolverUrl", "setResolverTimeouts", "enableResolverHedging", "setResolutionPolicy",
+            "cancel", "getMetrics", "enableTracing",
+            "exportTrace"
+    ));
+
+    // Stores, documents and issuers, and the DID logic using them.
+    private DIDEngine engine;
+    // Used by the Cordova thread and by the interactive actions threads.
+    private ConcurrentHashMap<String, DID> mDIDMap;
+    private ConcurrentHashMap<Integer, DIDDocument.PublicKey> mPublicKeyMap;
     //private HashMap<String, VerifiableCredential> mCredentialMap;
-    private HashMap<String, DIDStore> mDIDStoreMap;
-    private HashMap<String, Issuer> mIssuerMap;
+
+    private final DIDPluginMetrics metrics = new DIDPluginMetrics();
 
     private String keyCode      = "code";
     private String keyMessage   = "message";
@@ -111,26 +137,60 @@ public class DIDPlugin extends CordovaPlugin {
     private int errCodeActionNotFound             = 10014;
     private int errCodeUnspecified                = 10015;
     private int errCodeWrongPassword              = 10016;
+    private int errCodeOperationCancelled         = 10017;
+    private int errCodeOperationTimeout           = 10018;
 
     private int errCodeDidException               = 20000;
     private int errCodeException                  = 20001;
 
-    RootIdentity rootIdentity = null;
-
     public DIDPlugin() {
-        mDocumentMap = new HashMap<>();
-        mDIDMap = new HashMap<>();
-        mPublicKeyMap = new HashMap<>();
+        mDIDMap = new ConcurrentHashMap<>();
+        mPublicKeyMap = new ConcurrentHashMap<>();
         //mCredentialMap = new HashMap<>();
-        mDIDStoreMap = new HashMap<>();
-        mIssuerMap = new HashMap<>();
+    }
 
-        try {
-            setupDidAdapter();
-            initializeDIDBackend();
-        } catch (DIDResolveException e) {
-            Log.e(TAG, "new DIDPlugin error:" + e.toString());
+    @Override
+    protected void pluginInitialize() {
+        long start = System.nanoTime();
+
+        synchronized (backendLock) {
+            if (s_resolveCache == null)
+                s_resolveCache = new DIDResolveCache(new File(getDefaultCacheDir(cordova.getActivity())));
+            if (globalDidAdapter != null)
+                globalDidAdapter.setResolveCache(s_resolveCache);
         }
+        s_resolveCache.preload();
+
+        DIDTracer.setPidSource(Process::myPid);
+        engine = new DIDEngine(new File(getStoreRootDir(cordova.getActivity())), cordova.getThreadPool());
+        engine.setStoreWatcherFactory(DIDStoreWatcher::new);
+        engine.setDocumentRefreshListener(this::onDocumentRefreshed);
+        engine.setRenewalListener(this::onRenewalsDue);
+
+        // Don't make the app cold start pay for the DID backend setup: warm it up in background.
+        // Actions that need the backend before this is done will initialize it on first use.
+        warmUpDIDBackend();
+
+        pluginStartupDurationMs = (System.nanoTime() - start) / 1000000;
+        Log.d(TAG, "pluginInitialize() added " + pluginStartupDurationMs + "ms to the app startup");
+    }
+
+    private void warmUpDIDBackend() {
+        cordova.getThreadPool().execute(() -> {
+            try {
+                ensureDIDBackend();
+            } catch (DIDResolveException e) {
+                Log.e(TAG, "DID backend warm up error:" + e.toString());
+            }
+        });
+    }
+
+    /**
+     * Parsing a JWT without verifying its signature is pure decoding. Verifying it resolves the
+     * issuer through the DID backend.
+     */
+    private static boolean isBackendFreeParseJWT(String action, JSONArray args) {
+        return action.equals("DIDManager_parseJWT") && !args.optBoolean(0, true);
     }
 
     private void exceptionProcess(Exception e, CallbackContext cc, String msg) {
@@ -173,7 +233,23 @@ public class DIDPlugin extends CordovaPlugin {
 
     @Override
     public boolean execute(String action, JSONArray args, CallbackContext callbackContext) throws JSONException {
+        callbackContext = metrics.track(action, callbackContext, webView);
+
+        // Interactive actions don't wait for the ones running on the Cordova thread.
+        if (DIDActionScheduler.getPriority(action) == DIDActionScheduler.Priority.INTERACTIVE) {
+            CallbackContext tracked = callbackContext;
+            DIDActionScheduler.runInteractive(() -> dispatch(action, args, tracked));
+            return true;
+        }
+
+        return dispatch(action, args, callbackContext);
+    }
+
+    private boolean dispatch(String action, JSONArray args, CallbackContext callbackContext) {
         try {
+            if (!backendFreeActions.contains(action) && !isBackendFreeParseJWT(action, args))
+                ensureDIDBackend();
+
             switch(action) {
                 case "getVersion":
                     this.getVersion(args, callbackContext);
@@ -205,13 +281,43 @@ public class DIDPlugin extends CordovaPlugin {
                 case "setResolverUrl":
                     this.setResolverUrl(args, callbackContext);
                     break;
+                case "enableResolverHedging":
+                    this.enableResolverHedging(args, callbackContext);
+                    break;
+                case "setResolverTimeouts":
+                    this.setResolverTimeouts(args, callbackContext);
+                    break;
+                case "enableTracing":
+                    this.enableTracing(args, callbackContext);
+                    break;
+                case "exportTrace":
+                    this.exportTrace(args, callbackContext);
+                    break;
+                case "getMetrics":
+                    this.getMetrics(args, callbackContext);
+                    break;
+                case "cancel":
+                    this.cancel(args, callbackContext);
+                    break;
+                case "setResolutionPolicy":
+                    this.setResolutionPolicy(args, callbackContext);
+                    break;
                 case "DIDManager_resolveDIDDocument":
-                    this.DIDManager_resolveDIDDocument(args, callbackContext);
+                    this.DIDManager_resolveDIDDocument(args, callbackContext, false);
+                    break;
+                case "DIDManager_resolveDIDDocumentHandle":
+                    this.DIDManager_resolveDIDDocument(args, callbackContext, true);
                     break;
                 //DidStore
                 case "DIDStore_changePassword":
                     this.DIDStore_changePassword(args, callbackContext);
                     break;
+                case "DIDStore_monitorExpirations":
+                    this.DIDStore_monitorExpirations(args, callbackContext);
+                    break;
+                case "DIDStore_stopMonitoringExpirations":
+                    this.DIDStore_stopMonitoringExpirations(args, callbackContext);
+                    break;
                 case "containsPrivateIdentity":
                     this.containsPrivateIdentity(args, callbackContext);
                     break;
@@ -224,17 +330,29 @@ public class DIDPlugin extends CordovaPlugin {
                 case "synchronize":
                     this.synchronize(args, callbackContext);
                     break;
+                case "exportStore":
+                    this.exportStore(args, callbackContext);
+                    break;
+                case "importStore":
+                    this.importStore(args, callbackContext);
+                    break;
                 case "deleteDid":
                     this.deleteDid(args, callbackContext);
                     break;
                 case "newDid":
                     this.newDid(args, callbackContext);
                     break;
+                case "newDids":
+                    this.newDids(args, callbackContext);
+                    break;
                 case "listDids":
                     this.listDids(args, callbackContext);
                     break;
                 case "loadDid":
-                    this.loadDid(args, callbackContext);
+                    this.loadDid(args, callbackContext, false);
+                    break;
+                case "loadDidHandle":
+                    this.loadDid(args, callbackContext, true);
                     break;
                 case "publishDid":
                     this.publishDid(args, callbackContext);
@@ -270,6 +388,12 @@ public class DIDPlugin extends CordovaPlugin {
                 case "DIDDocument_removeService":
                     this.DIDDocument_removeService(args, callbackContext);
                     break;
+                case "getDocumentFields":
+                    this.getDocumentFields(args, callbackContext);
+                    break;
+                case "createJWTs":
+                    this.createJWTs(args, callbackContext);
+                    break;
                 case "DIDDocument_toJson":
                     this.DIDDocument_toJson(args, callbackContext);
                     break;
@@ -291,6 +415,12 @@ public class DIDPlugin extends CordovaPlugin {
                 case "signDigest":
                     this.signDigest(args, callbackContext);
                     break;
+                case "signDigests":
+                    this.signDigests(args, callbackContext);
+                    break;
+                case "verifyDigestProof":
+                    this.verifyDigestProof(args, callbackContext);
+                    break;
                 case "createJWT":
                     this.createJWT(args, callbackContext);
                     break;
@@ -363,22 +493,139 @@ public class DIDPlugin extends CordovaPlugin {
         return strArray;
     }
 
-    private void deleteFile(File file) {
-        if (file.isDirectory()) {
-            File[] children = file.listFiles();
-            for (File child : children)
-                deleteFile(child);
+    private String getStringFromJSONArray(JSONArray jsonArray, int index) throws JSONException {
+        return jsonArray.isNull(index) ? "" : jsonArray.getString(index);
+    }
+
+    private static String getStoreRootDir(Context context) {
+        return context.getFilesDir() + "/data/did";
+    }
+
+    private static String getDefaultCacheDir(Context context) {
+        return getStoreRootDir(context) + "/.cache.did.elastos";
+    }
+
+    /**
+     * Executor for background actions that are not operations.
+     */
+    private ExecutorService backgroundExecutor() {
+        return DIDActionScheduler.getExecutor(DIDActionScheduler.Priority.BACKGROUND, cordova.getThreadPool());
+    }
+
+    /**
+     * Runs an asynchronous action as an operation that the app can cancel, and that is aborted if
+     * it's not done before its deadline. Options are passed by the app as an optional last action argument:
+     * { operationId?: number, timeoutMs?: number }, or null.
+     */
+    private void startOperation(String name, JSONObject options, CallbackContext callbackContext, DIDOperation.Body body) {
+        int operationId = options != null ? options.optInt("operationId", 0) : 0;
+        long timeoutMs = options != null ? options.optLong("timeoutMs", 0) : 0;
+
+        DIDActionScheduler.Priority priority = DIDActionScheduler.getPriority(name);
+        ExecutorService executor = DIDActionScheduler.getExecutor(priority, cordova.getThreadPool());
+
+        DIDOperation.start(operationId, name, timeoutMs, priority == DIDActionScheduler.Priority.BACKGROUND, executor, operation -> {
+            try {
+                body.run(operation);
+            }
+            catch (Exception e) {
+                // The app has already been told, and the error is most likely due to the abort.
+                if (!operation.isAborted())
+                    exceptionProcess(e, callbackContext, name + " ");
+            }
+        }, (operation, reason) -> {
+            if (reason == DIDOperation.AbortReason.TIMED_OUT)
+                errorProcess(callbackContext, errCodeOperationTimeout, name + " timed out");
+            else
+                errorProcess(callbackContext, errCodeOperationCancelled, name + " cancelled");
+        });
+    }
+
+    private void cancel(JSONArray args, CallbackContext callbackContext) throws JSONException {
+        int idx = 0;
+        int operationId = args.getInt(idx++);
+
+        if (args.length() != idx) {
+            errorProcess(callbackContext, errCodeInvalidArg, idx + " parameters are expected");
+            return;
         }
 
-        file.delete();
+        boolean cancelled = DIDOperation.cancel(operationId);
+        callbackContext.success(cancelled ? "true" : "false");
     }
 
-    private String getStringFromJSONArray(JSONArray jsonArray, int index) throws JSONException {
-        return jsonArray.isNull(index) ? "" : jsonArray.getString(index);
+    private void enableTracing(JSONArray args, CallbackContext callbackContext) throws JSONException {
+        int idx = 0;
+        boolean enable = args.getBoolean(idx++);
+
+        if (args.length() != idx) {
+            errorProcess(callbackContext, errCodeInvalidArg, idx + " parameters are expected");
+            return;
+        }
+
+        DIDTracer.setEnabled(enable);
+        callbackContext.success();
     }
 
-    private static String getDefaultCacheDir(Context context) {
-        return context.getFilesDir() + "/data/did/.cache.did.elastos";
+    private void exportTrace(JSONArray args, CallbackContext callbackContext) throws JSONException {
+        int idx = 0;
+        boolean clear = args.getBoolean(idx++);
+
+        if (args.length() != idx) {
+            errorProcess(callbackContext, errCodeInvalidArg, idx + " parameters are expected");
+            return;
+        }
+
+        JSONObject trace = DIDTracer.toChromeTrace();
+        if (clear)
+            DIDTracer.clear();
+
+        callbackContext.success(trace);
+    }
+
+    private void getMetrics(JSONArray args, CallbackContext callbackContext) throws JSONException {
+        int idx = 0;
+        boolean reset = args.getBoolean(idx++);
+
+        if (args.length() != idx) {
+            errorProcess(callbackContext, errCodeInvalidArg, idx + " parameters are expected");
+            return;
+        }
+
+        JSONObject registries = new JSONObject();
+        registries.put("documents", engine.getDocumentCount());
+        registries.put("dids", mDIDMap.size());
+        registries.put("publicKeys", mPublicKeyMap.size());
+        registries.put("stores", engine.getStoreCount());
+        registries.put("issuers", engine.getIssuerCount());
+
+        JSONObject caches = new JSONObject();
+        if (s_resolveCache != null)
+            caches.put("resolve", s_resolveCache.toJson());
+        caches.put("credentials", engine.getCredentialCacheMetrics());
+        caches.put("presentations", engine.getPresentationCacheMetrics());
+
+        JSONObject backend = new JSONObject();
+        backend.put("initialized", backendInitialized);
+        backend.put("initDurationMs", backendInitDurationMs);
+        backend.put("pluginStartupDurationMs", pluginStartupDurationMs);
+
+        JSONObject ret = metrics.toJson();
+        ret.put("registries", registries);
+        ret.put("caches", caches);
+        ret.put("resolvers", s_resolverEndpoints.toJson());
+        ret.put("backend", backend);
+        ret.put("scheduler", DIDActionScheduler.toJson());
+
+        if (reset) {
+            metrics.reset();
+            engine.resetCacheStats();
+            DIDActionScheduler.resetStats();
+            if (s_resolveCache != null)
+                s_resolveCache.resetStats();
+        }
+
+        callbackContext.success(ret);
     }
 
     private void getVersion(JSONArray args, CallbackContext callbackContext) {
@@ -396,6 +643,30 @@ public class DIDPlugin extends CordovaPlugin {
             result.setKeepCallback(true);
             callbackContext.sendPluginResult(result);
         }
+        else if (type == DOCUMENTREFRESH) {
+            documentRefreshCC = callbackContext;
+
+            PluginResult result = new PluginResult(PluginResult.Status.NO_RESULT);
+            result.setKeepCallback(true);
+            callbackContext.sendPluginResult(result);
+        }
+        else if (type == STORECHANGE) {
+            storeChangeCC = callbackContext;
+
+            PluginResult result = new PluginResult(PluginResult.Status.NO_RESULT);
+            result.setKeepCallback(true);
+            callbackContext.sendPluginResult(result);
+        }
+        else if (type == RENEWALDUE) {
+            renewalDueCC = callbackContext;
+
+            PluginResult result = new PluginResult(PluginResult.Status.NO_RESULT);
+            result.setKeepCallback(true);
+            callbackContext.sendPluginResult(result);
+
+            // Renewals that came due while there was no listener.
+            engine.deliverDueRenewals();
+        }
     }
 
     private void enableJsonLdContext(JSONArray args, CallbackContext callbackContext) throws JSONException {
@@ -417,7 +688,7 @@ public class DIDPlugin extends CordovaPlugin {
 
         try {
             DIDDocument didDocument = DIDDocument.fromJson(json);
-            mDocumentMap.put(didDocument.getSubject().toString(), didDocument);
+            engine.putDocument(didDocument);
             JSONObject ret= new JSONObject();
             ret.put("diddoc", didDocument.toString(true));
             ret.put("updated", didDocument.getMetadata().getPublishTime());
@@ -428,16 +699,6 @@ public class DIDPlugin extends CordovaPlugin {
         }
     }
 
-    private String getStoreDataDir(String didStoreId) {
-//        if (appId.equals(DID_APPLICATION_APP_ID) || appId.equals(DID_SESSION_APPLICATION_APP_ID)) {
-//            return cordova.getActivity().getFilesDir() + "/data/did/useridentities/" + didStoreId;
-//        }
-//        else {
-//            return getDataPath() + "did/" + didStoreId;
-//        }
-        return cordova.getActivity().getFilesDir() + "/data/did/" + didStoreId;
-    }
-
     private void initDidStore(JSONArray args, CallbackContext callbackContext) throws JSONException {
         int idx = 0;
         String didStoreId = (args.isNull(0) ? null : args.getString(idx++));
@@ -446,8 +707,6 @@ public class DIDPlugin extends CordovaPlugin {
             return;
         }
 
-        String dataDir = getStoreDataDir(didStoreId);
-
         int callbackId = args.getInt(idx++);
 
         if (args.length() != idx) {
@@ -456,14 +715,11 @@ public class DIDPlugin extends CordovaPlugin {
         }
         try {
 //            globalDidAdapter = new DIDPluginAdapter(s_didResolverUrl, callbackId);
-//
-//            initializeDIDBackend();
 
             globalDidAdapter.setCallbackContext(idTransactionCC);
 
 //            DIDStore didStore = DIDStore.open("filesystem", dataDir, globalDidAdapter);
-            DIDStore didStore = DIDStore.open(dataDir);
-            mDIDStoreMap.put(didStoreId, didStore);
+            engine.openStore(didStoreId);
 
             callbackContext.success();
         }
@@ -475,42 +731,22 @@ public class DIDPlugin extends CordovaPlugin {
     private void deleteDidStore(JSONArray args, CallbackContext callbackContext) throws JSONException {
         int idx = 0;
         String didStoreId = args.getString(idx++);
-        String dataDir = getStoreDataDir(didStoreId);
 
         if (args.length() != idx) {
             errorProcess(callbackContext, errCodeInvalidArg, idx + " parameters are expected");
             return;
         }
 
-        DIDStore didStore = mDIDStoreMap.get(didStoreId);
-        try {
-//            List<DID> dids = didStore.listDids(DIDStore.DID_ALL);
-            List<DID> dids = didStore.listDids();
-            for (DID entry : dids) {
-                String didString = entry.toString();
-                mIssuerMap.remove(didString);
-                mDIDMap.remove(didString);
-                // TODO others
-            }
-        }
-        catch (Exception e) {
-            Log.d(TAG, "deleteDidStore listDids error:" + e.getLocalizedMessage());
-        }
-
-        mDIDStoreMap.remove(didStoreId);
-
-        java.io.File dirFile = new java.io.File(dataDir);
-        deleteFile(dirFile);
+        for (DID did : engine.deleteStore(didStoreId))
+            mDIDMap.remove(did.toString());
         callbackContext.success();
     }
 
     private void reset(JSONArray args, CallbackContext callbackContext) throws JSONException {
-        mDocumentMap = new HashMap<>();
-        mDIDMap = new HashMap<>();
-        mPublicKeyMap = new HashMap<>();
+        engine.reset();
+        mDIDMap.clear();
+        mPublicKeyMap.clear();
         //mCredentialMap = new HashMap<>();
-        mDIDStoreMap = new HashMap<>();
-        mIssuerMap = new HashMap<>();
 
         callbackContext.success();
     }
@@ -551,115 +787,378 @@ public class DIDPlugin extends CordovaPlugin {
         }
     }
 
-    private void setupDidAdapter() {
-        globalDidAdapter = new DIDPluginAdapter(s_didResolverUrl, 0);
+    private static void setupDidAdapter() {
+        globalDidAdapter = new DIDPluginAdapter(s_resolverEndpoints, 0, s_resolverTransport);
+        globalDidAdapter.setResolveCache(s_resolveCache);
+    }
+
+    /**
+     * Lazily creates our DID adapter and initializes the DID backend with it, the first time
+     * it's needed (or from the background warm up after app start). Cheap after the first call.
+     */
+    static void ensureDIDBackend() throws DIDResolveException {
+        if (backendInitialized)
+            return;
+
+        synchronized (backendLock) {
+            if (backendInitialized)
+                return;
+
+            long start = System.nanoTime();
+
+            if (globalDidAdapter == null)
+                setupDidAdapter();
+            DIDBackend.initialize(globalDidAdapter);
+            backendInitialized = true;
+
+            backendInitDurationMs = (System.nanoTime() - start) / 1000000;
+            Log.d(TAG, "DID backend initialized in " + backendInitDurationMs + "ms");
+        }
     }
 
-    public static void initializeDIDBackend() throws DIDResolveException {
-        if (globalDidAdapter == null) {
-            System.err.println("DIDPlugin initializeDIDBackend() warning: globalDidAdapter has not yet been initialized. NOT initializing the DID backend");
+    /**
+     * Lets the app know, through the document refresh listener, that a stale document it was
+     * given has changed on chain.
+     */
+    private void onDocumentRefreshed(DID did, DIDDocument document) {
+        if (documentRefreshCC == null)
             return;
+
+        try {
+            JSONObject ret = new JSONObject();
+            ret.put("did", did.toString());
+            ret.put("diddoc", document.toString(true));
+            ret.put("updated", document.getMetadata().getPublishTime());
+
+            PluginResult result = new PluginResult(PluginResult.Status.OK, ret);
+            result.setKeepCallback(true);
+            documentRefreshCC.sendPluginResult(result);
+        }
+        catch (JSONException e) {
+            Log.w(TAG, "Unable to send refreshed document for " + did + ": " + e.toString());
         }
+    }
 
-        DIDBackend.initialize(globalDidAdapter);
+    /**
+     * Reports a change this plugin made to a store, to the app, and to the engine so that the store
+     * watcher report of that write isn't taken for a change made by another component.
+     */
+    private void postStoreChange(String storeId, String type, String id) {
+        engine.noteOwnWrite(storeId, id);
+        storeChanges.post(storeId, type, id);
     }
 
-    @SuppressLint("StaticFieldLeak")
-    private void DIDManager_resolveDIDDocument(JSONArray args, CallbackContext callbackContext) throws JSONException {
+    /**
+     * Sends a batch of store changes to the store change listener, as { changes: [...] }.
+     */
+    private void onStoreChanges(JSONArray changes) {
+        if (storeChangeCC == null)
+            return;
+
+        try {
+            JSONObject ret = new JSONObject();
+            ret.put("changes", changes);
+
+            PluginResult result = new PluginResult(PluginResult.Status.OK, ret);
+            result.setKeepCallback(true);
+            storeChangeCC.sendPluginResult(result);
+        }
+        catch (JSONException e) {
+            Log.w(TAG, "Unable to send store changes: " + e.toString());
+        }
+    }
+
+    /**
+     * Sends the DIDs and credentials to renew to the renewal listener, as { due: [...] }. Returns
+     * false if the app has no renewal listener yet: they are sent once it sets one.
+     */
+    private boolean onRenewalsDue(JSONArray due) {
+        CallbackContext cc = renewalDueCC;
+        if (cc == null)
+            return false;
+
+        try {
+            JSONObject ret = new JSONObject();
+            ret.put("due", due);
+
+            PluginResult result = new PluginResult(PluginResult.Status.OK, ret);
+            result.setKeepCallback(true);
+            cc.sendPluginResult(result);
+            return true;
+        }
+        catch (JSONException e) {
+            Log.w(TAG, "Unable to send due renewals: " + e.toString());
+            return false;
+        }
+    }
+
+    private void setResolutionPolicy(JSONArray args, CallbackContext callbackContext) throws JSONException {
+        int idx = 0;
+        String policy = args.getString(idx++);
+
+        if (args.length() != idx) {
+            errorProcess(callbackContext, errCodeInvalidArg, idx + " parameters are expected");
+            return;
+        }
+
+        if (RESOLUTION_POLICY_STALE_WHILE_REVALIDATE.equals(policy)) {
+            engine.setStaleWhileRevalidate(true);
+        }
+        else if (RESOLUTION_POLICY_NETWORK_FIRST.equals(policy)) {
+            engine.setStaleWhileRevalidate(false);
+        }
+        else {
+            errorProcess(callbackContext, errCodeInvalidArg, "Unknown resolution policy: " + policy);
+            return;
+        }
+
+        callbackContext.success();
+    }
+
+    /**
+     * @param handleOnly Return a handle for getDocumentFields() instead of the document
+     *                   (DIDManager_resolveDIDDocumentHandle action).
+     */
+    private void DIDManager_resolveDIDDocument(JSONArray args, CallbackContext callbackContext, boolean handleOnly) throws JSONException {
         int idx = 0;
         String didString = args.getString(idx++);
         boolean forceRemote = args.getBoolean(idx++);
+        JSONObject operationOptions = null;
+        if (args.length() > idx)
+            operationOptions = args.optJSONObject(idx++);
+
+        if (args.length() != idx) {
+            errorProcess(callbackContext, errCodeInvalidArg, idx + " parameters are expected");
+            return;
+        }
+
+        startOperation("DIDManager_resolveDIDDocument", operationOptions, callbackContext, operation -> {
+            DIDEngine.Resolution resolved;
+            try {
+                resolved = engine.resolve(new DID(didString), forceRemote);
+            } catch (Exception e) {
+                e.printStackTrace();
+                resolved = null;
+            }
+
+            JSONObject ret;
+            if (resolved != null && resolved.document != null) {
+                DIDDocument didDocument = resolved.document;
+                // Handles refer to documents of the registry.
+                if (handleOnly)
+                    engine.putDocument(didDocument);
+                ret = documentResult(didDocument, handleOnly);
+                ret.put("stale", resolved.stale);
+            } else {
+                ret = new JSONObject();
+                ret.put("diddoc", null);
+            }
+            callbackContext.success(ret);
+        });
+    }
+
+    /**
+     * Runs in background, as re-encrypting a large store takes a while. Progress is reported as
+     * { progress: { completed, total } } results, the final success or error closes the callback.
+     */
+    private void DIDStore_changePassword(JSONArray args, CallbackContext callbackContext) throws JSONException {
+        int idx = 0;
+        String didStoreId = args.getString(idx++);
+        String oldPassword = args.getString(idx++);
+        String newPassword = args.getString(idx++);
+
+        if (args.length() != idx) {
+            errorProcess(callbackContext, errCodeInvalidArg, idx + " parameters are expected");
+            return;
+        }
+
+        if (engine.getStore(didStoreId) == null) {
+            errorProcess(callbackContext, errCodeDidStoreUninitialized, "DIDStore " + didStoreId + " is not initialized");
+            return;
+        }
+
+        backgroundExecutor().execute(() -> {
+            try {
+                engine.changePassword(didStoreId, oldPassword, newPassword,
+                        (completed, total) -> sendProgress(callbackContext, completed, total));
+                callbackContext.success();
+            }
+            catch (Exception e) {
+                exceptionProcess(e, callbackContext, "DIDStore_changePassword ");
+            }
+        });
+    }
+
+    /**
+     * Indexes the expiration of the DIDs and credentials of the store in background, then returns
+     * them as { items: [...] }, soonest expiring first. Those expiring within leadDays are then
+     * sent to the renewal listener.
+     */
+    private void DIDStore_monitorExpirations(JSONArray args, CallbackContext callbackContext) throws JSONException {
+        int idx = 0;
+        String didStoreId = args.getString(idx++);
+        int leadDays = args.getInt(idx++);
 
         if (args.length() != idx) {
             errorProcess(callbackContext, errCodeInvalidArg, idx + " parameters are expected");
             return;
         }
 
+        if (engine.getStore(didStoreId) == null) {
+            errorProcess(callbackContext, errCodeDidStoreUninitialized, "DIDStore " + didStoreId + " is not initialized");
+            return;
+        }
+
+        backgroundExecutor().execute(() -> {
+            try {
+                engine.monitorExpirations(didStoreId, leadDays);
+
+                JSONObject r = new JSONObject();
+                r.put("items", engine.getExpirations(didStoreId));
+                callbackContext.success(r);
+            }
+            catch (Exception e) {
+                exceptionProcess(e, callbackContext, "DIDStore_monitorExpirations ");
+            }
+        });
+    }
+
+    private void DIDStore_stopMonitoringExpirations(JSONArray args, CallbackContext callbackContext) throws JSONException {
+        int idx = 0;
+        String didStoreId = args.getString(idx++);
+
+        if (args.length() != idx) {
+            errorProcess(callbackContext, errCodeInvalidArg, idx + " parameters are expected");
+            return;
+        }
+
+        engine.stopMonitoringExpirations(didStoreId);
+        callbackContext.success();
+    }
+
+    private void containsPrivateIdentity(JSONArray args, CallbackContext callbackContext) throws JSONException {
+        int idx = 0;
+        String didStoreId = args.getString(idx++);
+        String did = args.getString(1);
+
         try {
-            initializeDIDBackend();
-
-            new AsyncTask<Void, Void, DIDDocument>() {
-                @Override
-                protected DIDDocument doInBackground(Void... voids) {
-                    DIDDocument didDocument;
-                    try {
-                        didDocument = new DID(didString).resolve(forceRemote);
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                        return null;
-                    }
-                    return didDocument;
-                }
+            DIDStore didStore = engine.getStore(didStoreId);
+//            Boolean ret = didStore.containsPrivateIdentity();
+            Boolean ret = didStore.containsPrivateKey(did);
+            callbackContext.success(ret.toString());
+        }
+        catch (DIDException e) {
+            exceptionProcess(e, callbackContext, "containsPrivateIdentity ");
+        }
+    }
 
-                @Override
-                protected void onPostExecute(DIDDocument didDocument) {
-                    JSONObject ret = new JSONObject();
-
-                    try {
-                        if (didDocument != null) {
-                            ret.put("diddoc", didDocument.toString(true));
-                            ret.put("updated", didDocument.getMetadata().getPublishTime());
-                        } else {
-                            ret.put("diddoc", null);
-                        }
-                        callbackContext.success(ret);
-                    }
-                    catch (Exception e) {
-                        exceptionProcess(e, callbackContext, "DIDManager_resolveDIDDocument ");
-                    }
-                }
-            }.execute();
+    private void initPrivateIdentity(JSONArray args, CallbackContext callbackContext) throws JSONException {
+        int idx = 0;
+        String didStoreId = args.getString(idx++);
+        String language = args.getString(idx++);
+        String mnemonic = args.getString(idx++);
+        String passphrase = getStringFromJSONArray(args, idx++);
+        String storepass = args.getString(idx++);
+        boolean force = args.getBoolean(idx++);
+
+        if (args.length() != idx) {
+            errorProcess(callbackContext, errCodeInvalidArg, idx + " parameters are expected");
+            return;
+        }
+
+        try {
+//            didStore.initPrivateIdentity(language, mnemonic, passphrase, storepass, force);
+            engine.initRootIdentity(didStoreId, mnemonic, passphrase, force, storepass);
+            callbackContext.success();
         }
         catch(DIDException e) {
-            exceptionProcess(e, callbackContext, "DIDManager_resolveDIDDocument ");
+            exceptionProcess(e, callbackContext, "initPrivateIdentity");
         }
     }
 
-    private void DIDStore_changePassword(JSONArray args, CallbackContext callbackContext) throws JSONException {
+    private void exportMnemonic(JSONArray args, CallbackContext callbackContext) throws JSONException {
+        int idx = 0;
+        String didStoreId = args.getString(idx++);
+        String storepass = args.getString(idx++);
+
+        if (args.length() != idx) {
+            errorProcess(callbackContext, errCodeInvalidArg, idx + " parameters are expected");
+            return;
+        }
+
+        try {
+            // Mnemonic of the identity new DIDs are derived from.
+            callbackContext.success(engine.getRootIdentity(didStoreId).exportMnemonic(storepass));
+
+        }
+        catch(DIDException e) {
+            exceptionProcess(e, callbackContext, "exportMnemonic");
+        }
+    }
+
+    /**
+     * Call this before resolve did.
+     *
+     * Accepts either a single resolver URL, or a list of resolver URLs. With several URLs,
+     * requests go to the fastest healthy resolver.
+     */
+    private void setResolverUrl(JSONArray args, CallbackContext callbackContext) throws JSONException {
         int idx = 0;
-        String didStoreId = args.getString(idx++);
-        String oldPassword = args.getString(idx++);
-        String newPassword = args.getString(idx++);
+        Object resolver = args.get(idx++);
 
         if (args.length() != idx) {
             errorProcess(callbackContext, errCodeInvalidArg, idx + " parameters are expected");
             return;
         }
 
+        List<String> resolvers;
+        if (resolver instanceof JSONArray)
+            resolvers = Arrays.asList(JSONArray2Array((JSONArray) resolver));
+        else
+            resolvers = Collections.singletonList(resolver.toString());
+
+        DIDResolverEndpoints endpoints;
         try {
-            DIDStore didStore = mDIDStoreMap.get(didStoreId);
-            didStore.changePassword(oldPassword, newPassword);
-            callbackContext.success();
+            endpoints = new DIDResolverEndpoints(resolvers, s_resolverTransport);
+        }
+        catch (IllegalArgumentException e) {
+            errorProcess(callbackContext, errCodeInvalidArg, "setResolverUrl(): " + e.getMessage());
+            return;
         }
-        catch (DIDStoreException e) {
-            exceptionProcess(e, callbackContext, "DIDStore_changePassword ");
+
+        // The backend is re-initialized with the new resolver in background, or on first use if
+        // another action needs it before that.
+        synchronized (backendLock) {
+            endpoints.setHedgingEnabled(s_resolverHedging);
+            s_didResolverUrl = endpoints.getPrimaryUrl();
+            s_resolverEndpoints = endpoints;
+            setupDidAdapter();
+            backendInitialized = false;
         }
+        warmUpDIDBackend();
+
+        callbackContext.success();
     }
 
-    private void containsPrivateIdentity(JSONArray args, CallbackContext callbackContext) throws JSONException {
-        int idx = 0;
-        String didStoreId = args.getString(idx++);
-        String did = args.getString(1);
+    /**
+     * When several resolvers are set, also sends a request to the second best resolver if the
+     * best one is slower than usual. First response wins.
+     */
+    private void enableResolverHedging(JSONArray args, CallbackContext callbackContext) throws JSONException {
+        boolean enable = args.getBoolean(0);
 
-        try {
-            DIDStore didStore = mDIDStoreMap.get(didStoreId);
-//            Boolean ret = didStore.containsPrivateIdentity();
-            Boolean ret = didStore.containsPrivateKey(did);
-            callbackContext.success(ret.toString());
-        }
-        catch (DIDException e) {
-            exceptionProcess(e, callbackContext, "containsPrivateIdentity ");
+        synchronized (backendLock) {
+            s_resolverHedging = enable;
+            s_resolverEndpoints.setHedgingEnabled(enable);
         }
+
+        callbackContext.success();
     }
 
-    private void initPrivateIdentity(JSONArray args, CallbackContext callbackContext) throws JSONException {
+    private void setResolverTimeouts(JSONArray args, CallbackContext callbackContext) throws JSONException {
         int idx = 0;
-        String didStoreId = args.getString(idx++);
-        String language = args.getString(idx++);
-        String mnemonic = args.getString(idx++);
-        String passphrase = getStringFromJSONArray(args, idx++);
-        String storepass = args.getString(idx++);
-        boolean force = args.getBoolean(idx++);
+        int connectTimeoutMs = args.getInt(idx++);
+        int readTimeoutMs = args.getInt(idx++);
 
         if (args.length() != idx) {
             errorProcess(callbackContext, errCodeInvalidArg, idx + " parameters are expected");
@@ -667,78 +1166,146 @@ public class DIDPlugin extends CordovaPlugin {
         }
 
         try {
-            DIDStore didStore = mDIDStoreMap.get(didStoreId);
-//            didStore.initPrivateIdentity(language, mnemonic, passphrase, storepass, force);
-            rootIdentity = RootIdentity.create(mnemonic, passphrase, force, didStore, storepass);
+            s_resolverTransport.setTimeouts(connectTimeoutMs, readTimeoutMs);
             callbackContext.success();
         }
-        catch(DIDException e) {
-            exceptionProcess(e, callbackContext, "initPrivateIdentity");
+        catch (IllegalArgumentException e) {
+            errorProcess(callbackContext, errCodeInvalidArg, "setResolverTimeouts(): " + e.getMessage());
         }
     }
 
-    private void exportMnemonic(JSONArray args, CallbackContext callbackContext) throws JSONException {
+    private void synchronize(JSONArray args, CallbackContext callbackContext) throws JSONException {
         int idx = 0;
         String didStoreId = args.getString(idx++);
         String storepass = args.getString(idx++);
+        JSONObject operationOptions = null;
+        if (args.length() > idx)
+            operationOptions = args.optJSONObject(idx++);
 
         if (args.length() != idx) {
             errorProcess(callbackContext, errCodeInvalidArg, idx + " parameters are expected");
             return;
         }
 
+        DIDStore didStore = engine.getStore(didStoreId);
+        if (didStore == null) {
+            errorProcess(callbackContext, errCodeDidStoreUninitialized, "DIDStore " + didStoreId + " is not initialized");
+            return;
+        }
+
+        // Progress is reported for each DID, the final success or error closes the callback.
+        DIDStoreSynchronizer synchronizer = new DIDStoreSynchronizer(didStore, storepass, (did, status, completed, total) -> {
+            if (status.equals("new"))
+                postStoreChange(didStoreId, DIDStoreChangeNotifier.DID_ADDED, did.toString());
+            else if (status.equals("updated"))
+                postStoreChange(didStoreId, DIDStoreChangeNotifier.DOCUMENT_UPDATED, did.toString());
+
+            try {
+                JSONObject progress = new JSONObject();
+                progress.put("did", did.toString());
+                progress.put("status", status);
+                progress.put("completed", completed);
+                progress.put("total", total);
+                JSONObject ret = new JSONObject();
+                ret.put("progress", progress);
+
+                PluginResult result = new PluginResult(PluginResult.Status.OK, ret);
+                result.setKeepCallback(true);
+                callbackContext.sendPluginResult(result);
+            }
+            catch (JSONException e) {
+                Log.e(TAG, "synchronize progress error: " + e.toString());
+            }
+        });
+
+        startOperation("synchronize", operationOptions, callbackContext, operation -> {
+            synchronizer.synchronize();
+            callbackContext.success();
+        });
+    }
+
+    /**
+     * Sends { progress: { completed, total } } as a kept result.
+     */
+    private void sendProgress(CallbackContext callbackContext, int completed, int total) {
         try {
-            DIDStore didStore = mDIDStoreMap.get(didStoreId);
-            callbackContext.success(didStore.loadRootIdentity().exportMnemonic(storepass));
+            JSONObject progress = new JSONObject();
+            progress.put("completed", completed);
+            progress.put("total", total);
+            JSONObject ret = new JSONObject();
+            ret.put("progress", progress);
 
+            PluginResult result = new PluginResult(PluginResult.Status.OK, ret);
+            result.setKeepCallback(true);
+            callbackContext.sendPluginResult(result);
         }
-        catch(DIDException e) {
-            exceptionProcess(e, callbackContext, "exportMnemonic");
+        catch (JSONException e) {
+            Log.e(TAG, "Progress error: " + e.toString());
         }
     }
 
     /**
-     * Call this before resolve did
+     * Archive files are given as paths, or as file:// URLs.
      */
-    private void setResolverUrl(JSONArray args, CallbackContext callbackContext) throws JSONException {
+    private static File getArchiveFile(String path) {
+        if (path.startsWith("file://"))
+            return new File(URI.create(path));
+        return new File(path);
+    }
+
+    private void exportStore(JSONArray args, CallbackContext callbackContext) throws JSONException {
         int idx = 0;
-        String resolver = args.getString(idx++);
+        String didStoreId = args.getString(idx++);
+        String path = args.getString(idx++);
+        String password = args.getString(idx++);
+        String storepass = args.getString(idx++);
+        JSONObject operationOptions = null;
+        if (args.length() > idx)
+            operationOptions = args.optJSONObject(idx++);
 
         if (args.length() != idx) {
             errorProcess(callbackContext, errCodeInvalidArg, idx + " parameters are expected");
             return;
         }
 
-        s_didResolverUrl = resolver;
-        setupDidAdapter();
-        try {
-            initializeDIDBackend();
-            callbackContext.success();
-        } catch (DIDResolveException e) {
-            exceptionProcess(e, callbackContext, "setResolverUrl ");
+        if (engine.getStore(didStoreId) == null) {
+            errorProcess(callbackContext, errCodeDidStoreUninitialized, "DIDStore " + didStoreId + " is not initialized");
+            return;
         }
+
+        startOperation("exportStore", operationOptions, callbackContext, operation -> {
+            engine.exportStore(didStoreId, getArchiveFile(path), password, storepass,
+                    (completed, total) -> sendProgress(callbackContext, completed, total));
+            callbackContext.success();
+        });
     }
 
-    private void synchronize(JSONArray args, CallbackContext callbackContext) throws JSONException {
+    private void importStore(JSONArray args, CallbackContext callbackContext) throws JSONException {
         int idx = 0;
         String didStoreId = args.getString(idx++);
+        String path = args.getString(idx++);
+        String password = args.getString(idx++);
         String storepass = args.getString(idx++);
+        JSONObject operationOptions = null;
+        if (args.length() > idx)
+            operationOptions = args.optJSONObject(idx++);
 
         if (args.length() != idx) {
             errorProcess(callbackContext, errCodeInvalidArg, idx + " parameters are expected");
             return;
         }
 
-        new Thread(() -> {
-            try {
-                DIDStore didStore = mDIDStoreMap.get(didStoreId);
-                didStore.synchronize();
-                callbackContext.success();
-            }
-            catch (Exception e) {
-                exceptionProcess(e, callbackContext, "synchronize");
-            }
-        }).start();
+        if (engine.getStore(didStoreId) == null) {
+            errorProcess(callbackContext, errCodeDidStoreUninitialized, "DIDStore " + didStoreId + " is not initialized");
+            return;
+        }
+
+        startOperation("importStore", operationOptions, callbackContext, operation -> {
+            engine.importStore(didStoreId, getArchiveFile(path), password, storepass,
+                    (completed, total) -> sendProgress(callbackContext, completed, total));
+            postStoreChange(didStoreId, DIDStoreChangeNotifier.STORE_CHANGED, null);
+            callbackContext.success();
+        });
     }
 
     private void deleteDid(JSONArray args, CallbackContext callbackContext) throws JSONException {
@@ -752,8 +1319,9 @@ public class DIDPlugin extends CordovaPlugin {
         }
 
         try {
-            DIDStore didStore = mDIDStoreMap.get(didStoreId);
+            DIDStore didStore = engine.getStore(didStoreId);
             didStore.deleteDid(didString);
+            postStoreChange(didStoreId, DIDStoreChangeNotifier.DID_DELETED, didString);
             callbackContext.success();
         }
         catch (DIDException e) {
@@ -773,13 +1341,12 @@ public class DIDPlugin extends CordovaPlugin {
         }
 
         try {
-            DIDStore didStore = mDIDStoreMap.get(didStoreId);
 //            DIDDocument didDocument = didStore.newDid(alias, passphrase);
-            DIDDocument didDocument = rootIdentity.newDid(passphrase);
+            DIDDocument didDocument = engine.newDid(didStoreId, passphrase);
             DID did = didDocument.getSubject();
             String didString = did.toString();
+            postStoreChange(didStoreId, DIDStoreChangeNotifier.DID_ADDED, didString);
 
-            mDocumentMap.put(didString, didDocument);
             JSONObject r = new JSONObject();
             r.put("did", didString);
             callbackContext.success(r);
@@ -789,26 +1356,122 @@ public class DIDPlugin extends CordovaPlugin {
         }
     }
 
-    private void loadDid(JSONArray args, CallbackContext callbackContext) throws JSONException {
+    /**
+     * Creates count DIDs at once. They are returned in derivation order.
+     */
+    private void newDids(JSONArray args, CallbackContext callbackContext) throws JSONException {
         int idx = 0;
         String didStoreId = args.getString(idx++);
-        String didString = args.getString(idx++);
+        String passphrase = args.getString(idx++);
+        int count = args.getInt(idx++);
+        JSONObject operationOptions = null;
+        if (args.length() > idx)
+            operationOptions = args.optJSONObject(idx++);
+
+        if (args.length() != idx) {
+            errorProcess(callbackContext, errCodeInvalidArg, idx + " parameters are expected");
+            return;
+        }
+
+        if (engine.getStore(didStoreId) == null) {
+            errorProcess(callbackContext, errCodeDidStoreUninitialized, "DIDStore " + didStoreId + " is not initialized");
+            return;
+        }
+
+        if (count <= 0) {
+            errorProcess(callbackContext, errCodeInvalidArg, "newDids(): invalid count " + count);
+            return;
+        }
+
+        startOperation("newDids", operationOptions, callbackContext, operation -> {
+            List<DIDDocument> documents = engine.newDids(didStoreId, count, passphrase);
+
+            JSONArray dids = new JSONArray();
+            for (DIDDocument document : documents) {
+                dids.put(document.getSubject().toString());
+                postStoreChange(didStoreId, DIDStoreChangeNotifier.DID_ADDED, document.getSubject().toString());
+            }
+
+            JSONObject r = new JSONObject();
+            r.put("dids", dids);
+            callbackContext.success(r);
+        });
+    }
+
+    /**
+     * A document as returned to the app: either whole, or as a handle for getDocumentFields(). The
+     * handle of a document is its DID, and refers to the last known document of this DID.
+     */
+    private static JSONObject documentResult(DIDDocument didDocument, boolean handleOnly) throws JSONException {
+        JSONObject r = new JSONObject();
+        if (handleOnly)
+            r.put("handle", didDocument.getSubject().toString());
+        else
+            r.put("diddoc", didDocument.toString(true));
+        r.put("updated", didDocument.getMetadata().getPublishTime());
+        return r;
+    }
+
+    /**
+     * Returns only the requested fields of a document previously loaded or resolved, instead of
+     * the whole document. See JSONObjectHolder.getDocumentFieldsJson() for the supported fields.
+     */
+    private void getDocumentFields(JSONArray args, CallbackContext callbackContext) throws JSONException {
+        int idx = 0;
+        String handle = args.getString(idx++);
+        JSONArray paths = args.getJSONArray(idx++);
 
         if (args.length() != idx) {
             errorProcess(callbackContext, errCodeInvalidArg, idx + " parameters are expected");
             return;
         }
 
+        DIDDocument didDocument = engine.getDocument(handle);
+        if (didDocument == null) {
+            errorProcess(callbackContext, errCodeInvalidDidDocment, "No document for handle " + handle);
+            return;
+        }
+
         try {
-            DIDStore didStore = mDIDStoreMap.get(didStoreId);
-            DIDDocument didDocument = didStore.loadDid(didString);
+            callbackContext.success(JSONObjectHolder.getDocumentFieldsJson(didDocument, paths));
+        }
+        catch (IllegalArgumentException e) {
+            errorProcess(callbackContext, errCodeInvalidArg, "getDocumentFields(): " + e.getMessage());
+        }
+    }
 
-            if (didDocument != null) {
-                mDocumentMap.put(didDocument.getSubject().toString(), didDocument);
+    /**
+     * @param handleOnly Return a handle for getDocumentFields() instead of the document
+     *                   (loadDidHandle action).
+     */
+    private void loadDid(JSONArray args, CallbackContext callbackContext, boolean handleOnly) throws JSONException {
+        int idx = 0;
+        String didStoreId;
+        String didString;
+        DIDTracer.Span argsSpan = DIDTracer.begin("loadDid.args", DIDTracer.ARGS);
+        try {
+            didStoreId = args.getString(idx++);
+            didString = args.getString(idx++);
+        } finally {
+            argsSpan.end();
+        }
 
-                JSONObject r = new JSONObject();
-                r.put("diddoc", didDocument.toString(true));
-                r.put("updated", didDocument.getMetadata().getPublishTime());
+        if (args.length() != idx) {
+            errorProcess(callbackContext, errCodeInvalidArg, idx + " parameters are expected");
+            return;
+        }
+
+        try {
+            DIDDocument didDocument = engine.loadDid(didStoreId, didString);
+
+            if (didDocument != null) {
+                JSONObject r;
+                DIDTracer.Span serializeSpan = DIDTracer.begin("loadDid.serialize", DIDTracer.SERIALIZE);
+                try {
+                    r = documentResult(didDocument, handleOnly);
+                } finally {
+                    serializeSpan.end();
+                }
                 callbackContext.success(r);
             }
             else {
@@ -831,7 +1494,7 @@ public class DIDPlugin extends CordovaPlugin {
         }
 
         try {
-            DIDStore didStore = mDIDStoreMap.get(didStoreId);
+            DIDStore didStore = engine.getStore(didStoreId);
             List<DID> dids = didStore.listDids();
             JSONObject r = JSONObjectHolder.getDIDsInfoJson(dids);
             callbackContext.success(r);
@@ -853,7 +1516,7 @@ public class DIDPlugin extends CordovaPlugin {
         }
 
         try {
-            DIDStore didStore = mDIDStoreMap.get(didStoreId);
+            DIDStore didStore = engine.getStore(didStoreId);
             String txId = didStore.publishDid(didString, 0, null, true, storepass);
             callbackContext.success(txId);
         }
@@ -873,41 +1536,43 @@ public class DIDPlugin extends CordovaPlugin {
         String didStoreId = args.getString(idx++);
         String didString = args.getString(idx++);
         String storepass = args.getString(idx++);
+        JSONObject operationOptions = null;
+        if (args.length() > idx)
+            operationOptions = args.optJSONObject(idx++);
 
         if (args.length() != idx) {
             errorProcess(callbackContext, errCodeInvalidArg, idx + " parameters are expected");
             return;
         }
 
-        new Thread(() -> {
-            try {
-                DIDDocument didDocument = mDocumentMap.get(didString);
-                globalDidAdapter.setPublicationStoreId(didStoreId);
-
-                Boolean isExpired = didDocument.isExpired();
+        startOperation("publishDid", operationOptions, callbackContext, operation -> {
+            DIDDocument didDocument = engine.getDocument(didString);
+            globalDidAdapter.setPublicationStoreId(didStoreId);
 
-                // The DID will always be up to date.
-                DIDDocument newDoc = didDocument.edit().setDefaultExpires().seal(storepass);
+            Boolean isExpired = didDocument.isExpired();
 
-                // Pass our adapter again here so that the DID SDK will use this one instead of the global
-                // instance sent to DIDBackend.initialize(), because many parties usually overwrite that global
-                // DIDBack end instance (Intent plugin, Hive SDK...)
-                if (isExpired) {
-                    newDoc.publish((DIDURL) null, true, storepass, globalDidAdapter);
-                } else {
-                    newDoc.publish(storepass, globalDidAdapter);
-                }
+            // The DID will always be up to date.
+            DIDDocument newDoc = didDocument.edit().setDefaultExpires().seal(storepass);
 
-                DIDStore didStore = mDIDStoreMap.get(didStoreId);
-                didStore.storeDid(newDoc);
-                mDocumentMap.put(didString, newDoc);
+            // Don't hand a publication request to the app for an operation that was abandoned.
+            operation.throwIfAborted();
 
-                callbackContext.success();
+            // Pass our adapter again here so that the DID SDK will use this one instead of the global
+            // instance sent to DIDBackend.initialize(), because many parties usually overwrite that global
+            // DIDBack end instance (Intent plugin, Hive SDK...)
+            if (isExpired) {
+                newDoc.publish((DIDURL) null, true, storepass, globalDidAdapter);
+            } else {
+                newDoc.publish(storepass, globalDidAdapter);
             }
-            catch (Exception e) {
-                exceptionProcess(e, callbackContext, "publishDid ");
-            }
-        }).start();
+
+            DIDStore didStore = engine.getStore(didStoreId);
+            didStore.storeDid(newDoc);
+            engine.putDocument(newDoc);
+            postStoreChange(didStoreId, DIDStoreChangeNotifier.DOCUMENT_UPDATED, didString);
+
+            callbackContext.success();
+        });
     }
 
     private void resolveDid(JSONArray args, CallbackContext callbackContext) throws JSONException {
@@ -921,13 +1586,13 @@ public class DIDPlugin extends CordovaPlugin {
 
         try {
             DID did = new DID(didString);
-            // Resolve and force to NOT use a locally cached copy.
-            DIDDocument didDocument = did.resolve(true);
+            // Resolve and force to NOT use a locally cached copy (unless stale copies are allowed).
+            DIDEngine.Resolution resolved = engine.resolve(did, true);
+            DIDDocument didDocument = resolved.document;
 
-            mDocumentMap.put(didDocument.getSubject().toString(), didDocument);
-            JSONObject r = new JSONObject();
-            r.put("diddoc", didDocument.toString(true));
-            r.put("updated", didDocument.getMetadata().getPublishTime());
+            engine.putDocument(didDocument);
+            JSONObject r = documentResult(didDocument, false);
+            r.put("stale", resolved.stale);
             callbackContext.success(r);
         }
         catch (Exception e) {
@@ -939,7 +1604,7 @@ public class DIDPlugin extends CordovaPlugin {
         int idx = 0;
         String didStoreId = args.getString(idx++);
         String didString = args.getString(idx++);
-        DIDDocument didDocument = mDocumentMap.get(didString);
+        DIDDocument didDocument = engine.getDocument(didString);
         String alias = args.getString(idx++);
 
         if (args.length() != idx) {
@@ -948,9 +1613,10 @@ public class DIDPlugin extends CordovaPlugin {
         }
 
         try {
-            DIDStore didStore = mDIDStoreMap.get(didStoreId);
+            DIDStore didStore = engine.getStore(didStoreId);
             didDocument.getMetadata().setAlias(alias);
             didStore.storeDid(didDocument);
+            postStoreChange(didStoreId, DIDStoreChangeNotifier.DOCUMENT_UPDATED, didString);
             callbackContext.success("true");
         }
         catch (DIDException e) {
@@ -964,10 +1630,7 @@ public class DIDPlugin extends CordovaPlugin {
         String didString = args.getString(idx++);
 
         try {
-            DIDStore didStore = mDIDStoreMap.get(didStoreId);
-            DID did = new DID(didString);
-            Issuer issuer = new Issuer(did, didStore);
-            mIssuerMap.put(didString, issuer);
+            engine.prepareIssuer(didStoreId, didString);
         }
         catch (DIDException e) {
             exceptionProcess(e, callbackContext, "prepareIssuer ");
@@ -976,16 +1639,29 @@ public class DIDPlugin extends CordovaPlugin {
 
     private void CreateCredential(JSONArray args, CallbackContext callbackContext) throws JSONException {
         int idx = 0;
-        String didStoreId = args.getString(idx++);
-        String didString = args.getString(idx++);
-        String subjectDidString = args.getString(idx++);
-        String credentialId = args.getString(idx++);
-        JSONArray type = args.getJSONArray(idx++);
-        String[] typeArray = JSONArray2Array(type);
+        String didStoreId;
+        String didString;
+        String subjectDidString;
+        String credentialId;
+        String[] typeArray;
+        Integer days;
+        JSONObject properties;
+        String passphrase;
+        DIDTracer.Span argsSpan = DIDTracer.begin("CreateCredential.args", DIDTracer.ARGS);
+        try {
+            didStoreId = args.getString(idx++);
+            didString = args.getString(idx++);
+            subjectDidString = args.getString(idx++);
+            credentialId = args.getString(idx++);
+            JSONArray type = args.getJSONArray(idx++);
+            typeArray = JSONArray2Array(type);
 
-        Integer days = args.getInt(idx++);
-        JSONObject properties = args.getJSONObject(idx++);
-        String passphrase = args.getString(idx++);
+            days = args.getInt(idx++);
+            properties = args.getJSONObject(idx++);
+            passphrase = args.getString(idx++);
+        } finally {
+            argsSpan.end();
+        }
 
         if (!ensureCredentialIDFormat(credentialId)) {
             errorProcess(callbackContext, errCodeInvalidArg, "Wrong DIDURL format: "+credentialId);
@@ -998,32 +1674,19 @@ public class DIDPlugin extends CordovaPlugin {
         }
 
         try {
-            DID subjectDid = new DID(subjectDidString);
-
-            Issuer issuer = mIssuerMap.get(didString);
-            if (issuer == null) {
-                DIDStore didStore = mDIDStoreMap.get(didStoreId);
-                DID did = new DID(didString);
-                issuer = new Issuer(did, didStore);
-                mIssuerMap.put(didString, issuer);
-            }
-
-            Calendar cal = Calendar.getInstance();
-            cal.add(Calendar.DATE, days);
-            Date expire = cal.getTime();
-
-            VerifiableCredential vc = issuer.issueFor(subjectDid)
-                    .id(getDidUrlFragment(credentialId))
-                    .types(typeArray)
-                    .expirationDate(expire)
-                    .properties(properties.toString())
-                    .seal(passphrase);
+            VerifiableCredential vc = engine.issueCredential(didStoreId, didString, subjectDidString,
+                    credentialId, typeArray, days, properties.toString(), passphrase);
 
             //Integer objId = System.identityHashCode(vc);
 
             //mCredentialMap.put(objId, vc);
             JSONObject ret= new JSONObject();
-            ret.put("credential", vc.toString(true));
+            DIDTracer.Span serializeSpan = DIDTracer.begin("CreateCredential.serialize", DIDTracer.SERIALIZE);
+            try {
+                ret.put("credential", vc.toString(true));
+            } finally {
+                serializeSpan.end();
+            }
             System.out.println("credential="+vc.toString(true));
             callbackContext.success(ret);
         }
@@ -1053,7 +1716,7 @@ public class DIDPlugin extends CordovaPlugin {
         }
 
         try {
-            DIDStore didStore = mDIDStoreMap.get(didStoreId);
+            DIDStore didStore = engine.getStore(didStoreId);
 
             VerifiableCredential vc = null;
 
@@ -1071,7 +1734,7 @@ public class DIDPlugin extends CordovaPlugin {
                 return;
             }
 
-            //mCredentialMap.put(didUrlString, vc);
+            engine.putCredential(didStoreId, vc);
             JSONObject ret= new JSONObject();
             ret.put("credential", vc.toString(true));
             callbackContext.success(ret);
@@ -1092,11 +1755,12 @@ public class DIDPlugin extends CordovaPlugin {
         }
 
         try {
-            DIDStore didStore = mDIDStoreMap.get(didStoreId);
+            DIDStore didStore = engine.getStore(didStoreId);
 
-            VerifiableCredential credential = VerifiableCredential.fromJson(credentialJson);
+            VerifiableCredential credential = engine.parseCredentialForStore(credentialJson);
             didStore.storeCredential(credential);
-            //mCredentialMap.put(credential.getId().toString(), credential);
+            engine.putCredential(didStoreId, credential);
+            postStoreChange(didStoreId, DIDStoreChangeNotifier.CREDENTIAL_STORED, credential.getId().toString());
             callbackContext.success();
         }
         catch (DIDException e) {
@@ -1121,15 +1785,13 @@ public class DIDPlugin extends CordovaPlugin {
         }
 
         try {
-            DIDStore didStore = mDIDStoreMap.get(didStoreId);
+            DIDStore didStore = engine.getStore(didStoreId);
 
-            boolean ret = false;
-            if (didUrlString.startsWith("did:elastos:")) {
-                ret = didStore.deleteCredential(didUrlString);
-            }
-            else {
-                ret = didStore.deleteCredential(didString + didUrlString);
-            }
+            String credentialId = didUrlString.startsWith("did:elastos:") ? didUrlString : didString + didUrlString;
+            boolean ret = didStore.deleteCredential(credentialId);
+            engine.removeCredential(didStoreId, credentialId);
+            if (ret)
+                postStoreChange(didStoreId, DIDStoreChangeNotifier.CREDENTIAL_DELETED, credentialId);
 
             if (ret) {
                 callbackContext.success();
@@ -1154,7 +1816,7 @@ public class DIDPlugin extends CordovaPlugin {
         }
 
         try {
-            DIDStore didStore = mDIDStoreMap.get(didStoreId);
+            DIDStore didStore = engine.getStore(didStoreId);
 
             DID did = new DID(didString);
             List<DIDURL> unloadedCredentials = didStore.listCredentials(did);
@@ -1163,6 +1825,7 @@ public class DIDPlugin extends CordovaPlugin {
             for (DIDURL url : unloadedCredentials) {
 //                VerifiableCredential credential = didStore.loadCredential(did, url);
                 VerifiableCredential credential = didStore.loadCredential(url);
+                engine.putCredential(didStoreId, credential);
                 credentials.add(credential);
             }
 
@@ -1178,7 +1841,7 @@ public class DIDPlugin extends CordovaPlugin {
 
     private void getDefaultPublicKey(JSONArray args, CallbackContext callbackContext) throws JSONException {
         String didUrl = args.getString(0);
-        DIDDocument didDocument = mDocumentMap.get(didUrl);
+        DIDDocument didDocument = engine.getDocument(didUrl);
         /*
         DIDURL publicKeyId = didDocument.getDefaultPublicKey();
         if (publicKeyId != null) {
@@ -1223,9 +1886,9 @@ public class DIDPlugin extends CordovaPlugin {
         }
 
         try {
-            DIDStore didStore = mDIDStoreMap.get(didStoreId);
+            DIDStore didStore = engine.getStore(didStoreId);
 
-            DIDDocument didDocument = mDocumentMap.get(didString);
+            DIDDocument didDocument = engine.getDocument(didString);
             DIDDocument.Builder db = didDocument.edit();
 
             JSONObject serviceJsonObj = new JSONObject(serviceJson);
@@ -1239,7 +1902,8 @@ public class DIDPlugin extends CordovaPlugin {
             didStore.storeDid(document);
 
             // Update cached document with newly generated one
-            mDocumentMap.put(didString, document);
+            engine.putDocument(document);
+            postStoreChange(didStoreId, DIDStoreChangeNotifier.DOCUMENT_UPDATED, didString);
 
             callbackContext.success();
         }
@@ -1266,9 +1930,9 @@ public class DIDPlugin extends CordovaPlugin {
         }
 
         try {
-            DIDStore didStore = mDIDStoreMap.get(didStoreId);
+            DIDStore didStore = engine.getStore(didStoreId);
 
-            DIDDocument didDocument = mDocumentMap.get(didString);
+            DIDDocument didDocument = engine.getDocument(didString);
             DIDDocument.Builder db = didDocument.edit();
 
             db.removeService(serviceDidUrl);
@@ -1276,7 +1940,8 @@ public class DIDPlugin extends CordovaPlugin {
             didStore.storeDid(document);
 
             // Update cached document with newly generated one
-            mDocumentMap.put(didString, document);
+            engine.putDocument(document);
+            postStoreChange(didStoreId, DIDStoreChangeNotifier.DOCUMENT_UPDATED, didString);
 
             callbackContext.success();
         }
@@ -1299,18 +1964,19 @@ public class DIDPlugin extends CordovaPlugin {
         }
 
         try {
-            DIDStore didStore = mDIDStoreMap.get(didStoreId);
+            DIDStore didStore = engine.getStore(didStoreId);
 
-            DIDDocument didDocument = mDocumentMap.get(didString);
+            DIDDocument didDocument = engine.getDocument(didString);
             DIDDocument.Builder db = didDocument.edit();
 
-            VerifiableCredential vc = VerifiableCredential.fromJson(credentialJson);
+            VerifiableCredential vc = engine.parseCredentialForStore(credentialJson);
             db.addCredential(vc);
             DIDDocument issuer = db.seal(storepass);
             didStore.storeDid(issuer);
 
             // Update cached document with newly generated one
-            mDocumentMap.put(didString, issuer);
+            engine.putDocument(issuer);
+            postStoreChange(didStoreId, DIDStoreChangeNotifier.DOCUMENT_UPDATED, didString);
 
             callbackContext.success();
         }
@@ -1333,18 +1999,19 @@ public class DIDPlugin extends CordovaPlugin {
         }
 
         try {
-            DIDStore didStore = mDIDStoreMap.get(didStoreId);
+            DIDStore didStore = engine.getStore(didStoreId);
 
-            DIDDocument didDocument = mDocumentMap.get(didString);
+            DIDDocument didDocument = engine.getDocument(didString);
             DIDDocument.Builder db = didDocument.edit();
 
-            VerifiableCredential vc = VerifiableCredential.fromJson(credentialJson);
+            VerifiableCredential vc = engine.parseCredential(credentialJson);
             db.removeCredential(vc.getId());
             DIDDocument issuer = db.seal(storepass);
             didStore.storeDid(issuer);
 
             // Update cached document with newly generated one
-            mDocumentMap.put(didString, issuer);
+            engine.putDocument(issuer);
+            postStoreChange(didStoreId, DIDStoreChangeNotifier.DOCUMENT_UPDATED, didString);
 
             callbackContext.success();
         }
@@ -1364,7 +2031,7 @@ public class DIDPlugin extends CordovaPlugin {
         }
 
         try {
-            DIDDocument didDocument = mDocumentMap.get(didString);
+            DIDDocument didDocument = engine.getDocument(didString);
             List<VerifiableCredential> credentials = didDocument.getCredentials();
 
             JSONObject r = new JSONObject();
@@ -1382,7 +2049,7 @@ public class DIDPlugin extends CordovaPlugin {
         int idx = 0;
         String didString = args.getString(idx++);
 
-        DIDDocument didDocument = mDocumentMap.get(didString);
+        DIDDocument didDocument = engine.getDocument(didString);
 
         String storepass = args.getString(idx++);
         String originString = args.getString(idx++);
@@ -1400,7 +2067,7 @@ public class DIDPlugin extends CordovaPlugin {
         int idx = 0;
         String didString = args.getString(idx++);
 
-        DIDDocument didDocument = mDocumentMap.get(didString);
+        DIDDocument didDocument = engine.getDocument(didString);
 
         String signString = args.getString(idx++);
         String originString = args.getString(idx++);
@@ -1419,25 +2086,15 @@ public class DIDPlugin extends CordovaPlugin {
         }
     }
 
-    public byte[] hex2byte(String inputString) {
-        if (inputString == null || inputString.length() < 2) {
-            return new byte[0];
-        }
-        inputString = inputString.toLowerCase();
-        int len = inputString.length() / 2;
-        byte[] result = new byte[len];
-        for (int i = 0; i < len; ++i) {
-            String tmp = inputString.substring(2 * i, 2 * i + 2);
-            result[i] = (byte) (Integer.parseInt(tmp, 16) & 0xFF);
-        }
-        return result;
+    public static byte[] hex2byte(String inputString) {
+        return DIDCodec.hex2byte(inputString);
     }
 
     private void signDigest(JSONArray args, CallbackContext callbackContext) throws JSONException, DIDStoreException {
         int idx = 0;
         String didString = args.getString(idx++);
 
-        DIDDocument didDocument = mDocumentMap.get(didString);
+        DIDDocument didDocument = engine.getDocument(didString);
 
         String storepass = args.getString(idx++);
         String originString = args.getString(idx++);
@@ -1451,6 +2108,103 @@ public class DIDPlugin extends CordovaPlugin {
         callbackContext.success(signString);
     }
 
+    public static String byte2hex(byte[] bytes) {
+        return DIDCodec.byte2hex(bytes);
+    }
+
+    /**
+     * Attests a batch of digests with a single signature: builds a Merkle tree over the digests and
+     * signs its root, bound to the batch size (see DIDMerkleTree). Returns { root, signature, count, proofs }, with the inclusion proof of each
+     * digest in the order of the digests, to be checked with verifyDigestProof().
+     */
+    private void signDigests(JSONArray args, CallbackContext callbackContext) throws JSONException {
+        int idx = 0;
+        String didString = args.getString(idx++);
+        String storepass = args.getString(idx++);
+        JSONArray digestsJson = args.getJSONArray(idx++);
+
+        if (args.length() != idx) {
+            errorProcess(callbackContext, errCodeInvalidArg, idx + " parameters are expected");
+            return;
+        }
+
+        DIDDocument didDocument = engine.getDocument(didString);
+        if (didDocument == null) {
+            errorProcess(callbackContext, errCodeInvalidDidDocment, "No document for " + didString);
+            return;
+        }
+
+        if (digestsJson.length() == 0) {
+            errorProcess(callbackContext, errCodeInvalidArg, "signDigests(): no digest");
+            return;
+        }
+
+        backgroundExecutor().execute(() -> {
+            try {
+                List<byte[]> digests = new ArrayList<>(digestsJson.length());
+                for (int i = 0; i < digestsJson.length(); i++)
+                    digests.add(hex2byte(digestsJson.getString(i)));
+
+                DIDMerkleTree tree = new DIDMerkleTree(digests);
+                String signature = didDocument.signDigest(storepass, tree.getSignedDigest());
+
+                JSONArray proofs = new JSONArray();
+                for (int i = 0; i < tree.getCount(); i++) {
+                    JSONArray proof = new JSONArray();
+                    for (byte[] hash : tree.getProof(i))
+                        proof.put(byte2hex(hash));
+                    proofs.put(proof);
+                }
+
+                JSONObject r = new JSONObject();
+                r.put("root", byte2hex(tree.getRoot()));
+                r.put("signature", signature);
+                r.put("count", tree.getCount());
+                r.put("proofs", proofs);
+                callbackContext.success(r);
+            }
+            catch (Exception e) {
+                exceptionProcess(e, callbackContext, "signDigests ");
+            }
+        });
+    }
+
+    /**
+     * Checks that a digest is the index-th of a batch of count digests signed by signDigests().
+     */
+    private void verifyDigestProof(JSONArray args, CallbackContext callbackContext) throws JSONException {
+        int idx = 0;
+        String didString = args.getString(idx++);
+        String signature = args.getString(idx++);
+        String digest = args.getString(idx++);
+        int index = args.getInt(idx++);
+        int count = args.getInt(idx++);
+        JSONArray proofJson = args.getJSONArray(idx++);
+
+        if (args.length() != idx) {
+            errorProcess(callbackContext, errCodeInvalidArg, idx + " parameters are expected");
+            return;
+        }
+
+        DIDDocument didDocument = engine.getDocument(didString);
+        if (didDocument == null) {
+            errorProcess(callbackContext, errCodeInvalidDidDocment, "No document for " + didString);
+            return;
+        }
+
+        List<byte[]> proof = new ArrayList<>(proofJson.length());
+        for (int i = 0; i < proofJson.length(); i++)
+            proof.add(hex2byte(proofJson.getString(i)));
+
+        byte[] root = DIDMerkleTree.computeRoot(hex2byte(digest), index, count, proof);
+        if (root != null && didDocument.verifyDigest(signature, DIDMerkleTree.signedDigest(root, count))) {
+            callbackContext.success();
+        }
+        else {
+            errorProcess(callbackContext, errCodeVerify, "verifyDigestProof return false!");
+        }
+    }
+
     private void createJWT(JSONArray args, CallbackContext callbackContext) throws JSONException {
         int idx = 0;
         String didString = args.getString(idx++);
@@ -1464,29 +2218,7 @@ public class DIDPlugin extends CordovaPlugin {
         }
 
         try {
-            DIDDocument didDocument = mDocumentMap.get(didString);
-
-            JwsHeader header = JwtBuilder.createJwsHeader();
-            header.setType(Header.JWT_TYPE)
-                    .setContentType("json");
-
-            Calendar cal = Calendar.getInstance();
-            cal.set(Calendar.MILLISECOND, 0);
-            Date iat = cal.getTime();
-            cal.add(Calendar.DATE, days);
-            Date exp = cal.getTime();
-
-            Claims body = JwtBuilder.createClaims();
-            body.setIssuer(didString)
-                    .setIssuedAt(iat)
-                    .setExpiration(exp)
-                    .putAllWithJson(properties.toString());
-
-            String token = didDocument.jwtBuilder()
-                    .setHeader(header)
-                    .setClaims(body)
-                    .sign(storepass)
-                    .compact();
+            String token = engine.createJWT(didString, properties.toString(), days, storepass);
 
             callbackContext.success(token);
         }
@@ -1495,43 +2227,66 @@ public class DIDPlugin extends CordovaPlugin {
         }
     }
 
-    private void DIDDocument_toJson(JSONArray args, CallbackContext callbackContext) throws JSONException {
+    /**
+     * Creates one JWT per claim set, signed by the same document, with the same extra header fields
+     * and validity, and returns them as { tokens: [...] }, in the order of the claim sets.
+     */
+    private void createJWTs(JSONArray args, CallbackContext callbackContext) throws JSONException {
         int idx = 0;
         String didString = args.getString(idx++);
+        JSONObject header = args.getJSONObject(idx++);
+        long validitySeconds = args.getLong(idx++);
+        JSONArray claimSets = args.getJSONArray(idx++);
+        String storepass = args.getString(idx++);
+        JSONObject operationOptions = null;
+        if (args.length() > idx)
+            operationOptions = args.optJSONObject(idx++);
 
         if (args.length() != idx) {
             errorProcess(callbackContext, errCodeInvalidArg, idx + " parameters are expected");
             return;
         }
 
-        DIDDocument didDocument = mDocumentMap.get(didString);
-        String jsonString = didDocument.toString();
+        if (engine.getDocument(didString) == null) {
+            errorProcess(callbackContext, errCodeInvalidDidDocment, "No document for " + didString);
+            return;
+        }
 
-        callbackContext.success(jsonString);
-    }
+        List<String> claims = new ArrayList<>(claimSets.length());
+        for (int i = 0; i < claimSets.length(); i++)
+            claims.add(claimSets.getJSONObject(i).toString());
+
+        startOperation("createJWTs", operationOptions, callbackContext, operation -> {
+            List<String> tokens = engine.createJWTs(didString, header, validitySeconds, claims, storepass);
 
-    private static JSONObject parseJWT(String jwt) throws Exception {
-        // Remove the Signature from the received JWT for now, we don't handle this.
-        // TODO: extract the JWT issuer field from the JWT, resolve its DID from the DID sidechain, and
-        // verify the JWT using the public key. JWT will have to be signed by the app developer's DID's private key.
-        String[] splitToken = jwt.split("\\.");
+            JSONObject r = new JSONObject();
+            r.put("tokens", new JSONArray(tokens));
+            callbackContext.success(r);
+        });
+    }
 
-        if (splitToken.length == 0)
-            throw new Exception("Invalid JWT Token in parseJWT(): it contains only a header but no payload or signature");
+    private void DIDDocument_toJson(JSONArray args, CallbackContext callbackContext) throws JSONException {
+        int idx = 0;
+        String didString = args.getString(idx++);
 
-        String jwtPayload = splitToken[1];
-        byte[] b64PayloadBytes = Base64.decode(jwtPayload, Base64.URL_SAFE);
-        String b64Payload = new String(b64PayloadBytes, "UTF-8");
+        if (args.length() != idx) {
+            errorProcess(callbackContext, errCodeInvalidArg, idx + " parameters are expected");
+            return;
+        }
 
-        JSONObject jwtPayloadJson = new JSONObject(b64Payload);
+        DIDDocument didDocument = engine.getDocument(didString);
+        String jsonString = didDocument.toString();
 
-        return jwtPayloadJson;
+        callbackContext.success(jsonString);
     }
 
     private void DIDManager_parseJWT(JSONArray args, CallbackContext callbackContext) throws JSONException {
         int idx = 0;
         boolean verifySignature = args.getBoolean(idx++);
         String jwtToken = args.getString(idx++);
+        JSONObject operationOptions = null;
+        if (args.length() > idx)
+            operationOptions = args.optJSONObject(idx++);
 
         if (args.length() != idx) {
             errorProcess(callbackContext, errCodeInvalidArg, idx + " parameters are expected");
@@ -1540,61 +2295,13 @@ public class DIDPlugin extends CordovaPlugin {
 
         try {
             if (verifySignature) {
-                JSONObject r = new JSONObject();
-
-                // The DID SDK JWT parser already does the whole verification itself. Run this in a
-                // background thread because there is potentially a network call involved.
-                new Thread(() -> {
-                    try {
-                        try {
-                            Jwt parsedAndVerifiedJwt = new JwtParserBuilder().build().parse(jwtToken);
-                            Claims claims = (Claims) parsedAndVerifiedJwt.getBody();
-                            JSONObject jsonPayload = new JSONObject(claims);
-
-                            r.put("signatureIsValid", true);
-                            r.put("payload", jsonPayload);
-                        } catch (JwsSignatureException e) {
-                            // In case of signature verification error, we still want to return the payload to the caller.
-                            // It can decide whether to use it or not.
-                            JSONObject jsonPayload = parseJWT(jwtToken);
-
-                            r.put("signatureIsValid", false);
-                            r.put("payload", jsonPayload);
-                            r.put("errorReason", "DID not found on chain, or invalid signature");
-                        } catch (ExpiredJwtException e) {
-                            // In case of signature verification error, we still want to return the payload to the caller.
-                            // It can decide whether to use it or not.
-                            JSONObject jsonPayload = parseJWT(jwtToken);
-
-                            r.put("signatureIsValid", false);
-                            r.put("payload", jsonPayload);
-                            r.put("errorReason", "JWT token is expired");
-                        } catch (IllegalArgumentException e) {
-                            // In case of signature verification error, we still want to return the payload to the caller.
-                            // It can decide whether to use it or not.
-                            JSONObject jsonPayload = parseJWT(jwtToken);
-
-                            r.put("signatureIsValid", false);
-                            r.put("payload", jsonPayload);
-                            r.put("errorReason", "Illegal argument. It's possible that the JWT signature information is incorrect (no signing key information)");
-                        }
-                        callbackContext.success(r);
-                    }
-                    catch (Exception e) {
-                        exceptionProcess(e, callbackContext, "DIDManager_parseJWT ");
-                    }
-                }).start();
+                // Run this in a background operation because there is potentially a network call involved.
+                startOperation("DIDManager_parseJWT", operationOptions, callbackContext, operation -> {
+                    callbackContext.success(engine.parseJWT(jwtToken, true));
+                });
             }
             else {
-                // No need to verify the JWT signature - just extract the payload manually without verification
-                // We can't use the DID parser as it will foce signature verification.
-                JSONObject jsonPayload = parseJWT(jwtToken);
-
-                JSONObject r = new JSONObject();
-                r.put("signatureIsValid", false);
-                r.put("payload", jsonPayload);
-
-                callbackContext.success(r);
+                callbackContext.success(engine.parseJWT(jwtToken, false));
             }
         }
         catch (DIDException e) {
@@ -1642,7 +2349,7 @@ public class DIDPlugin extends CordovaPlugin {
         String didStoreId = args.getString(0);
         String credentialId = args.getString(1); // Credential ID (did url)
 
-        DIDStore didStore = mDIDStoreMap.get(didStoreId);
+        DIDStore didStore = engine.getStore(didStoreId);
 
         try {
             String credentialJson = didStore.loadCredential(credentialId).serialize();
@@ -1668,21 +2375,26 @@ public class DIDPlugin extends CordovaPlugin {
         }
 
         try {
-            DIDStore didStore = mDIDStoreMap.get(didStoreId);
-            DID did = new DID(didString);
-
-            // Rebuild our credentials from their JSON form
-            ArrayList<VerifiableCredential> credentials = new ArrayList<>();
+            // Credentials are given as ids of credentials of the store, or as JSON objects.
+            List<VerifiableCredential> credentials = new ArrayList<>(creds.length());
             for (int i=0; i<creds.length(); i++) {
-                credentials.add(VerifiableCredential.fromJson(creds.getJSONObject(i).toString()));
+                JSONObject credentialJson = creds.optJSONObject(i);
+                VerifiableCredential credential;
+                if (credentialJson != null) {
+                    credential = engine.parseCredential(credentialJson.toString());
+                }
+                else {
+                    credential = engine.getCredential(didStoreId, didString, creds.getString(i));
+                    if (credential == null) {
+                        errorProcess(callbackContext, errCodeInvalidArg, "No credential " + creds.getString(i) + " in store");
+                        return;
+                    }
+                }
+                credentials.add(credential);
             }
 
-            VerifiablePresentation.Builder builder = VerifiablePresentation.createFor(did, didStore);
-            VerifiableCredential[] credsArray = credentials.toArray(new VerifiableCredential[creds.length()]);
-            VerifiablePresentation presentation = builder.credentials(credsArray)
-                    .nonce(nonce)
-                    .realm(realm)
-                    .seal(storePass);
+            VerifiablePresentation presentation = engine.createPresentation(didStoreId, didString, credentials,
+                    realm, nonce, storePass);
 
             callbackContext.success(presentation.toString());
         } catch (DIDException e) {
@@ -1701,10 +2413,8 @@ public class DIDPlugin extends CordovaPlugin {
         }
 
         try {
-            VerifiablePresentation presentation = VerifiablePresentation.fromJson(pres.toString());
-
             JSONObject r = new JSONObject();
-            r.put("isvalid", presentation.isValid());
+            r.put("isvalid", engine.isPresentationValid(pres.toString()));
             callbackContext.success(r);
         } catch (DIDException e) {
             exceptionProcess(e, callbackContext, "verifiablePresentationIsValid ");
@@ -1722,10 +2432,8 @@ public class DIDPlugin extends CordovaPlugin {
         }
 
         try {
-            VerifiablePresentation presentation = VerifiablePresentation.fromJson(pres.toString());
-
             JSONObject r = new JSONObject();
-            r.put("isgenuine", presentation.isGenuine());
+            r.put("isgenuine", engine.isPresentationGenuine(pres.toString()));
             callbackContext.success(r);
         } catch (DIDException e) {
             exceptionProcess(e, callbackContext, "verifiablePresentationIsGenuine ");
@@ -1743,7 +2451,7 @@ public class DIDPlugin extends CordovaPlugin {
         }
 
         try {
-            VerifiablePresentation presentation = VerifiablePresentation.fromJson(pres.toString());
+            VerifiablePresentation presentation = engine.parsePresentation(pres.toString());
             callbackContext.success(presentation.toString());
         } catch (DIDException e) {
             exceptionProcess(e, callbackContext, "verifiablePresentationToJson ");
@@ -1760,18 +2468,4 @@ public class DIDPlugin extends CordovaPlugin {
 
         return true;
     }
-
-    /**
-     * Converts long or short form DIDURL into the a fragment only.
-     * did:elastos:abcdef#my-key -> my-key
-     * #my-key -> my-key
-     */
-    private String getDidUrlFragment(String didUrl) {
-        if (didUrl.indexOf("#") == 0)
-            return didUrl.substring(1);
-        else if (didUrl.contains("#"))
-            return didUrl.substring(didUrl.indexOf("#")+1);
-        else
-            return didUrl;
-    }
 }
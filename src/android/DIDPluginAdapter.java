@@ -28,21 +28,159 @@ import org.apache.cordova.CallbackContext;
 import org.apache.cordova.PluginResult;
 import org.elastos.did.DIDAdapter;
 import org.elastos.did.DefaultDIDAdapter;
+import org.elastos.did.backend.DIDResolveRequest;
 import org.elastos.did.exception.DIDResolveException;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.Map;
 
 public class DIDPluginAdapter extends DefaultDIDAdapter {
     private final String TAG = "DIDPluginAdapter";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
     private final int callbackId;
     private CallbackContext callbackContext;
     private String publicationStoreId = null;
+    private final DIDResolverEndpoints endpoints;
+    private final DIDResolverTransport transport;
+    private DIDResolveCache resolveCache = null;
 
-    DIDPluginAdapter(String endpoint, int id) {
-        super(endpoint);
+    DIDPluginAdapter(DIDResolverEndpoints endpoints, int id, DIDResolverTransport transport) {
+        super(endpoints.getPrimaryUrl());
         this.callbackId = id;
+        this.endpoints = endpoints;
+        this.transport = transport;
+    }
+
+    /**
+     * Resolve requests go through our pooled, keep-alive transport instead of opening a new
+     * connection to the resolver for every request. Requests to the resolver endpoint are
+     * dispatched to the best of the configured endpoints.
+     */
+    @Override
+    protected InputStream httpPost(URL url, Map<String, String> headers, String body) throws IOException {
+        if (url.toExternalForm().equals(getRpcEndpoint().toExternalForm()))
+            return endpoints.post(headers, body);
+        else
+            return transport.post(url, headers, body);
+    }
+
+    /**
+     * DID resolver responses are kept in the persistent resolve cache. Credential resolutions are
+     * not, as they tell whether credentials are revoked, which must not be answered from an old
+     * response. The DID SDK checks that the response id matches the request id, so cached
+     * responses are given the id of the current request before being returned.
+     */
+    @Override
+    public InputStream resolve(String request) throws DIDResolveException {
+        DIDResolveCache cache = resolveCache;
+        if (cache == null)
+            return super.resolve(request);
+
+        JSONObject requestJson;
+        String key;
+        try {
+            requestJson = new JSONObject(request);
+            key = cacheKey(requestJson);
+        } catch (JSONException e) {
+            return super.resolve(request);
+        }
+
+        boolean cached = DIDResolveRequest.METHOD_NAME.equals(requestJson.optString("method"));
+        boolean force = DIDResolveFlags.isForceRemote();
+        boolean stale = DIDResolveFlags.isAllowStale();
+        if (cached && (!force || stale)) {
+            DIDResolveCache.Hit hit;
+            DIDTracer.Span cacheSpan = DIDTracer.begin("resolveCache.lookup", DIDTracer.CACHE);
+            try {
+                hit = cache.lookup(key, stale);
+            } finally {
+                cacheSpan.end();
+            }
+            if (hit != null) {
+                try {
+                    JSONObject response = new JSONObject(new String(hit.value, UTF8));
+                    response.put("id", requestJson.opt("id"));
+                    // A forced resolve served from cache is stale too, as it was not checked against the chain.
+                    if (hit.expired || force)
+                        DIDResolveFlags.markServedStale();
+                    return new ByteArrayInputStream(response.toString().getBytes(UTF8));
+                } catch (JSONException e) {
+                    Log.w(TAG, "Ignoring invalid cached resolve response: " + e.toString());
+                }
+            }
+        }
+
+        byte[] response;
+        DIDTracer.Span networkSpan = DIDTracer.begin("resolve " + requestJson.optString("method"), DIDTracer.NETWORK);
+        try {
+            response = readFully(super.resolve(request));
+        } catch (IOException e) {
+            throw new DIDResolveException("Unable to read the resolve response", e);
+        } finally {
+            networkSpan.end();
+        }
+
+        if (cached && isCacheable(response)) {
+            DIDTracer.Span cacheSpan = DIDTracer.begin("resolveCache.put", DIDTracer.CACHE);
+            try {
+                cache.put(key, response);
+            } finally {
+                cacheSpan.end();
+            }
+        }
+
+        return new ByteArrayInputStream(response);
+    }
+
+    void setResolveCache(DIDResolveCache resolveCache) {
+        this.resolveCache = resolveCache;
+    }
+
+    /**
+     * Resolve requests without their request id, so that identical requests share the same key,
+     * prefixed with the resolvers, so that switching networks doesn't serve the other network data.
+     */
+    private String cacheKey(JSONObject request) throws JSONException {
+        return endpoints.getNetworkKey() + " " + request.getString("method") + ":" + request.optJSONArray("params");
+    }
+
+    /**
+     * Only successful responses are kept, and "not found" results are not, as a DID that doesn't
+     * exist yet may be published at any time.
+     */
+    private static boolean isCacheable(byte[] response) {
+        try {
+            JSONObject json = new JSONObject(new String(response, UTF8));
+            if (!json.isNull("error"))
+                return false;
+
+            Object result = json.opt("result");
+            if (result instanceof JSONObject)
+                return ((JSONObject) result).optInt("status", 0) != 3;
+            return result != null && result != JSONObject.NULL;
+        } catch (JSONException e) {
+            return false;
+        }
+    }
+
+    private static byte[] readFully(InputStream is) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = is.read(buffer)) != -1)
+                out.write(buffer, 0, read);
+            return out.toByteArray();
+        } finally {
+            is.close();
+        }
     }
 
     private void sendEvent(JSONObject info) throws Exception {
@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2021 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.plugins.did;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.CordovaWebView;
+import org.apache.cordova.PluginResult;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Per action call counts, error counts by error code and latency histograms, for every action
+ * dispatched by DIDPlugin.execute().
+ *
+ * The latency of an action is the time from its dispatch to its first final (non kept) result,
+ * so asynchronous actions are measured until they actually complete.
+ */
+class DIDPluginMetrics {
+    /**
+     * Log-linear latency histogram: each bucket is 10% wider than the previous one, from 10us to
+     * about 20 minutes, so percentiles are reported with at most 10% error in constant memory.
+     */
+    static class Histogram {
+        private static final double MIN_US = 10;
+        private static final double GROWTH = 1.1;
+        private static final int BUCKETS = 200;
+
+        private final long[] counts = new long[BUCKETS];
+        private long count = 0;
+        private long sumUs = 0;
+        private long maxUs = 0;
+
+        synchronized void record(long us) {
+            int bucket = us <= MIN_US ? 0 : (int) Math.ceil(Math.log(us / MIN_US) / Math.log(GROWTH));
+            counts[Math.min(bucket, BUCKETS - 1)]++;
+            count++;
+            sumUs += us;
+            maxUs = Math.max(maxUs, us);
+        }
+
+        /**
+         * Upper bound of the bucket holding the given percentile, in milliseconds.
+         */
+        synchronized double percentileMs(double percentile) {
+            if (count == 0)
+                return 0;
+
+            long rank = (long) Math.ceil(percentile / 100 * count);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank)
+                    return Math.min(MIN_US * Math.pow(GROWTH, i), maxUs) / 1000;
+            }
+            return maxUs / 1000.0;
+        }
+
+        synchronized JSONObject toJson() throws JSONException {
+            JSONObject r = new JSONObject();
+            r.put("count", count);
+            r.put("meanMs", count > 0 ? round(sumUs / 1000.0 / count) : 0);
+            r.put("p50Ms", round(percentileMs(50)));
+            r.put("p95Ms", round(percentileMs(95)));
+            r.put("p99Ms", round(percentileMs(99)));
+            r.put("maxMs", round(maxUs / 1000.0));
+            return r;
+        }
+
+        private static double round(double ms) {
+            return Math.round(ms * 100) / 100.0;
+        }
+    }
+
+    static class ActionMetrics {
+        private long calls = 0;
+        private long errors = 0;
+        private final Map<Integer, Long> errorCodes = new TreeMap<>();
+        final Histogram latency = new Histogram();
+
+        synchronized void recordCall() {
+            calls++;
+        }
+
+        synchronized void recordError(int code) {
+            errors++;
+            Long count = errorCodes.get(code);
+            errorCodes.put(code, count == null ? 1 : count + 1);
+        }
+
+        synchronized JSONObject toJson(double elapsedSeconds) throws JSONException {
+            JSONObject codes = new JSONObject();
+            for (Map.Entry<Integer, Long> e : errorCodes.entrySet())
+                codes.put(String.valueOf(e.getKey()), e.getValue());
+
+            JSONObject r = new JSONObject();
+            r.put("calls", calls);
+            r.put("callsPerSecond", elapsedSeconds > 0 ? Histogram.round(calls / elapsedSeconds) : 0);
+            r.put("errors", errors);
+            r.put("errorCodes", codes);
+            r.put("latency", latency.toJson());
+            return r;
+        }
+    }
+
+    /**
+     * Forwards results to the real callback context, and records the first final one.
+     */
+    private static class TrackedCallbackContext extends CallbackContext {
+        private final CallbackContext delegate;
+        private final String action;
+        private final ActionMetrics metrics;
+        private final long startNanos = System.nanoTime();
+        private final AtomicBoolean recorded = new AtomicBoolean(false);
+
+        TrackedCallbackContext(CallbackContext delegate, CordovaWebView webView, String action, ActionMetrics metrics) {
+            super(delegate.getCallbackId(), webView);
+            this.delegate = delegate;
+            this.action = action;
+            this.metrics = metrics;
+        }
+
+        @Override
+        public boolean isFinished() {
+            return delegate.isFinished();
+        }
+
+        @Override
+        public void sendPluginResult(PluginResult pluginResult) {
+            if (!pluginResult.getKeepCallback() && recorded.compareAndSet(false, true)) {
+                long endNanos = System.nanoTime();
+                metrics.latency.record((endNanos - startNanos) / 1000);
+                DIDTracer.record(action, DIDTracer.ACTION, startNanos, endNanos);
+                if (pluginResult.getStatus() != PluginResult.Status.OK.ordinal()
+                        && pluginResult.getStatus() != PluginResult.Status.NO_RESULT.ordinal())
+                    metrics.recordError(errorCode(pluginResult));
+            }
+
+            delegate.sendPluginResult(pluginResult);
+        }
+    }
+
+    private final ConcurrentHashMap<String, ActionMetrics> actions = new ConcurrentHashMap<>();
+    private volatile long sinceMillis = System.currentTimeMillis();
+
+    /**
+     * Counts a call to this action, and returns the callback context to use for it.
+     */
+    CallbackContext track(String action, CallbackContext callbackContext, CordovaWebView webView) {
+        ActionMetrics metrics = actions.get(action);
+        if (metrics == null) {
+            ActionMetrics created = new ActionMetrics();
+            metrics = actions.putIfAbsent(action, created);
+            if (metrics == null)
+                metrics = created;
+        }
+
+        metrics.recordCall();
+        return new TrackedCallbackContext(callbackContext, webView, action, metrics);
+    }
+
+    JSONObject toJson() throws JSONException {
+        double elapsedSeconds = (System.currentTimeMillis() - sinceMillis) / 1000.0;
+
+        JSONObject actionsJson = new JSONObject();
+        for (Map.Entry<String, ActionMetrics> e : new TreeMap<>(actions).entrySet())
+            actionsJson.put(e.getKey(), e.getValue().toJson(elapsedSeconds));
+
+        JSONObject r = new JSONObject();
+        r.put("since", sinceMillis);
+        r.put("actions", actionsJson);
+        r.put("runtime", runtimeJson());
+        return r;
+    }
+
+    /**
+     * Process resources at the time of the snapshot, to relate latencies and throughput to the
+     * load the app puts on the process.
+     */
+    private static JSONObject runtimeJson() throws JSONException {
+        Runtime runtime = Runtime.getRuntime();
+
+        JSONObject r = new JSONObject();
+        r.put("threads", Thread.activeCount());
+        r.put("heapUsedBytes", runtime.totalMemory() - runtime.freeMemory());
+        r.put("heapMaxBytes", runtime.maxMemory());
+        r.put("processors", runtime.availableProcessors());
+        return r;
+    }
+
+    void reset() {
+        actions.clear();
+        sinceMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Error code from errorProcess() and exceptionProcess() results, or -1 for other errors.
+     */
+    private static int errorCode(PluginResult pluginResult) {
+        if (pluginResult.getMessageType() != PluginResult.MESSAGE_TYPE_JSON)
+            return -1;
+
+        try {
+            return new JSONObject(pluginResult.getMessage()).optInt("code", -1);
+        } catch (JSONException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,551 @@
+/*
+ * Copyright (c) 2021 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.plugins.did;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Persistent cache of raw resolver responses, keyed by resolver set and resolve request (without
+ * its request id).
+ *
+ * Only the chain data is cached: the DID SDK still parses and verifies every cached response
+ * exactly like a network response, so a cache hit is as trustworthy as a network resolve of the
+ * same age.
+ *
+ * Storage is made of two files:
+ * - resolve.dat: append-only records [length][expiresAt][keyLength][key][deflated response].
+ *   Reads go through a read-only memory mapping of this file.
+ * - resolve.idx: snapshot of the key -> record index, and of the data size it covers. Records
+ *   appended after the snapshot are recovered by scanning the data file from that point.
+ *
+ * Replaced and long expired records are dropped by a background compaction.
+ */
+class DIDResolveCache {
+    private static final String TAG = "DIDResolveCache";
+
+    private static final String DATA_FILE = "resolve.dat";
+    private static final String INDEX_FILE = "resolve.idx";
+    private static final int DATA_MAGIC = 0x44524331;
+    private static final int INDEX_MAGIC = 0x44524931;
+    private static final int HEADER_SIZE = 4;
+    // length + expiresAt + keyLength
+    private static final int RECORD_HEADER_SIZE = 4 + 8 + 2;
+    private static final int MAX_RECORD_SIZE = 4 * 1024 * 1024;
+
+    // Same as the DID SDK in-memory resolve cache, so that documents are not older than without this cache.
+    static final long TTL_MS = 10 * 60 * 1000L;
+    // Expired entries are kept that long, so they can still be used when the network is not.
+    static final long MAX_STALENESS_MS = 7 * 24 * 60 * 60 * 1000L;
+
+    private static final long COMPACTION_MIN_SIZE = 256 * 1024;
+    private static final int PUTS_BETWEEN_INDEX_WRITES = 32;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static class Entry {
+        final long offset;
+        final int recordLength;
+        final int keyLength;
+        final long expiresAt;
+
+        Entry(long offset, int recordLength, int keyLength, long expiresAt) {
+            this.offset = offset;
+            this.recordLength = recordLength;
+            this.keyLength = keyLength;
+            this.expiresAt = expiresAt;
+        }
+
+        long valueOffset() {
+            return offset + RECORD_HEADER_SIZE + keyLength;
+        }
+
+        int valueLength() {
+            return recordLength - RECORD_HEADER_SIZE - keyLength;
+        }
+    }
+
+    private final File dir;
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "DIDResolveCache");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+
+    private final HashMap<String, Entry> index = new HashMap<>();
+    private RandomAccessFile dataFile;
+    private FileChannel channel;
+    private MappedByteBuffer mapped;
+    private long dataSize = 0;
+    private long liveBytes = 0;
+    private int putsSinceIndexWrite = 0;
+    private boolean loaded = false;
+    private boolean available = true;
+    private boolean compactionScheduled = false;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long staleHits = 0;
+
+    DIDResolveCache(File dir) {
+        this.dir = dir;
+    }
+
+    static class Hit {
+        final byte[] value;
+        final boolean expired;
+
+        Hit(byte[] value, boolean expired) {
+            this.value = value;
+            this.expired = expired;
+        }
+    }
+
+    /**
+     * Returns the cached response for this key, or null if there is none. Expired responses are
+     * returned (and flagged as such) only if allowExpired is true.
+     */
+    synchronized Hit lookup(String key, boolean allowExpired) {
+        if (!ensureLoaded())
+            return null;
+
+        Entry entry = index.get(key);
+        boolean expired = entry != null && entry.expiresAt < System.currentTimeMillis();
+        if (entry == null || (expired && !allowExpired)) {
+            misses++;
+            return null;
+        }
+
+        byte[] value = read(key, entry);
+        if (value == null) {
+            misses++;
+            return null;
+        }
+
+        if (expired)
+            staleHits++;
+        else
+            hits++;
+        return new Hit(value, expired);
+    }
+
+    synchronized void put(String key, byte[] value) {
+        if (!ensureLoaded())
+            return;
+
+        try {
+            byte[] keyBytes = key.getBytes(UTF8);
+            byte[] deflated = deflate(value);
+            int recordLength = RECORD_HEADER_SIZE + keyBytes.length + deflated.length;
+            if (keyBytes.length > Short.MAX_VALUE || recordLength > MAX_RECORD_SIZE)
+                return;
+
+            long expiresAt = System.currentTimeMillis() + TTL_MS;
+
+            ByteBuffer record = ByteBuffer.allocate(recordLength);
+            record.putInt(recordLength);
+            record.putLong(expiresAt);
+            record.putShort((short) keyBytes.length);
+            record.put(keyBytes);
+            record.put(deflated);
+            record.flip();
+
+            long offset = dataSize;
+            while (record.hasRemaining())
+                channel.write(record, offset + record.position());
+            dataSize += recordLength;
+
+            Entry previous = index.put(key, new Entry(offset, recordLength, keyBytes.length, expiresAt));
+            if (previous != null)
+                liveBytes -= previous.recordLength;
+            liveBytes += recordLength;
+
+            if (++putsSinceIndexWrite >= PUTS_BETWEEN_INDEX_WRITES) {
+                putsSinceIndexWrite = 0;
+                worker.execute(this::writeIndexSafely);
+            }
+
+            maybeScheduleCompaction();
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to write resolve cache entry: " + e.toString());
+        }
+    }
+
+    synchronized JSONObject toJson() throws JSONException {
+        JSONObject r = new JSONObject();
+        r.put("entries", index.size());
+        r.put("sizeBytes", dataSize);
+        r.put("liveBytes", liveBytes);
+        r.put("hits", hits);
+        r.put("staleHits", staleHits);
+        r.put("misses", misses);
+        long lookups = hits + staleHits + misses;
+        r.put("hitRatio", lookups > 0 ? (double) (hits + staleHits) / lookups : 0);
+        return r;
+    }
+
+    synchronized void resetStats() {
+        hits = 0;
+        staleHits = 0;
+        misses = 0;
+    }
+
+    /**
+     * Loads the index in background, so that the first resolve doesn't have to.
+     */
+    void preload() {
+        worker.execute(this::ensureLoaded);
+    }
+
+    private synchronized boolean ensureLoaded() {
+        if (loaded)
+            return available;
+
+        loaded = true;
+        try {
+            long start = System.nanoTime();
+            open();
+            Log.d(TAG, "Resolve cache loaded with " + index.size() + " entries in " + (System.nanoTime() - start) / 1000000 + "ms");
+        } catch (IOException e) {
+            Log.e(TAG, "Resolve cache unavailable: " + e.toString());
+            available = false;
+        }
+        return available;
+    }
+
+    private void open() throws IOException {
+        if (!dir.exists() && !dir.mkdirs())
+            throw new IOException("Unable to create " + dir);
+
+        dataFile = new RandomAccessFile(new File(dir, DATA_FILE), "rw");
+        channel = dataFile.getChannel();
+        dataSize = channel.size();
+
+        if (dataSize < HEADER_SIZE || readHeader() != DATA_MAGIC) {
+            resetDataFile();
+            return;
+        }
+
+        long scanFrom = readIndex();
+        scan(scanFrom);
+    }
+
+    private int readHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        channel.read(header, 0);
+        header.flip();
+        return header.getInt();
+    }
+
+    private void resetDataFile() throws IOException {
+        index.clear();
+        channel.truncate(0);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(DATA_MAGIC);
+        header.flip();
+        channel.write(header, 0);
+        dataSize = HEADER_SIZE;
+        liveBytes = 0;
+        mapped = null;
+        new File(dir, INDEX_FILE).delete();
+    }
+
+    /**
+     * Returns the data file offset from which records are not covered by the index file.
+     */
+    private long readIndex() {
+        File indexFile = new File(dir, INDEX_FILE);
+        if (!indexFile.exists())
+            return HEADER_SIZE;
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+            if (in.readInt() != INDEX_MAGIC)
+                return HEADER_SIZE;
+
+            long covered = in.readLong();
+            if (covered > dataSize)
+                return HEADER_SIZE;
+
+            int count = in.readInt();
+            HashMap<String, Entry> entries = new HashMap<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                long offset = in.readLong();
+                int recordLength = in.readInt();
+                int keyLength = in.readShort();
+                long expiresAt = in.readLong();
+                entries.put(key, new Entry(offset, recordLength, keyLength, expiresAt));
+            }
+
+            index.putAll(entries);
+            for (Entry entry : entries.values())
+                liveBytes += entry.recordLength;
+            return covered;
+        } catch (IOException e) {
+            Log.w(TAG, "Ignoring unreadable resolve cache index: " + e.toString());
+            index.clear();
+            liveBytes = 0;
+            return HEADER_SIZE;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private void scan(long from) throws IOException {
+        long offset = from;
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+
+        while (offset + RECORD_HEADER_SIZE <= dataSize) {
+            header.clear();
+            channel.read(header, offset);
+            header.flip();
+            int recordLength = header.getInt();
+            long expiresAt = header.getLong();
+            int keyLength = header.getShort();
+
+            if (recordLength < RECORD_HEADER_SIZE + keyLength || keyLength < 0 || offset + recordLength > dataSize)
+                break;
+
+            ByteBuffer key = ByteBuffer.allocate(keyLength);
+            channel.read(key, offset + RECORD_HEADER_SIZE);
+
+            Entry previous = index.put(new String(key.array(), UTF8), new Entry(offset, recordLength, keyLength, expiresAt));
+            if (previous != null)
+                liveBytes -= previous.recordLength;
+            liveBytes += recordLength;
+            offset += recordLength;
+        }
+
+        if (offset < dataSize) {
+            // Torn write at the end of the file, from an interrupted process.
+            Log.w(TAG, "Truncating resolve cache data file from " + dataSize + " to " + offset);
+            channel.truncate(offset);
+            dataSize = offset;
+        }
+    }
+
+    private byte[] read(String key, Entry entry) {
+        try {
+            if (mapped == null || mapped.capacity() < entry.offset + entry.recordLength)
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, dataSize);
+
+            ByteBuffer buffer = mapped.duplicate();
+            buffer.position((int) entry.valueOffset());
+            byte[] deflated = new byte[entry.valueLength()];
+            buffer.get(deflated);
+            return inflate(deflated);
+        } catch (IOException | DataFormatException | RuntimeException e) {
+            Log.w(TAG, "Dropping unreadable resolve cache entry: " + e.toString());
+            index.remove(key);
+            liveBytes -= entry.recordLength;
+            return null;
+        }
+    }
+
+    private void maybeScheduleCompaction() {
+        if (compactionScheduled || dataSize < COMPACTION_MIN_SIZE || liveBytes * 2 > dataSize)
+            return;
+
+        compactionScheduled = true;
+        worker.execute(this::compact);
+    }
+
+    /**
+     * Rewrites the data file with live entries only, then atomically replaces it.
+     */
+    private synchronized void compact() {
+        compactionScheduled = false;
+        if (!available)
+            return;
+
+        long start = System.nanoTime();
+        long oldSize = dataSize;
+        long dropBefore = System.currentTimeMillis() - MAX_STALENESS_MS;
+
+        File tmp = new File(dir, DATA_FILE + ".tmp");
+        RandomAccessFile out = null;
+        try {
+            out = new RandomAccessFile(tmp, "rw");
+            FileChannel outChannel = out.getChannel();
+            outChannel.truncate(0);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(DATA_MAGIC);
+            header.flip();
+            outChannel.write(header, 0);
+
+            long offset = HEADER_SIZE;
+            HashMap<String, Entry> compacted = new HashMap<>(index.size() * 2);
+            for (Map.Entry<String, Entry> e : index.entrySet()) {
+                Entry entry = e.getValue();
+                if (entry.expiresAt < dropBefore)
+                    continue;
+
+                ByteBuffer record = ByteBuffer.allocate(entry.recordLength);
+                channel.read(record, entry.offset);
+                record.flip();
+                while (record.hasRemaining())
+                    outChannel.write(record, offset + record.position());
+
+                compacted.put(e.getKey(), new Entry(offset, entry.recordLength, entry.keyLength, entry.expiresAt));
+                offset += entry.recordLength;
+            }
+            outChannel.force(false);
+            out.close();
+            out = null;
+
+            channel.close();
+            dataFile.close();
+            if (!tmp.renameTo(new File(dir, DATA_FILE)))
+                throw new IOException("Unable to replace the resolve cache data file");
+
+            dataFile = new RandomAccessFile(new File(dir, DATA_FILE), "rw");
+            channel = dataFile.getChannel();
+            mapped = null;
+            dataSize = offset;
+            liveBytes = offset - HEADER_SIZE;
+            index.clear();
+            index.putAll(compacted);
+            writeIndex();
+
+            Log.d(TAG, "Resolve cache compacted from " + oldSize + " to " + dataSize + " bytes in " + (System.nanoTime() - start) / 1000000 + "ms");
+        } catch (IOException e) {
+            Log.e(TAG, "Resolve cache compaction failed: " + e.toString());
+            closeQuietly(out);
+            tmp.delete();
+            // Start from a clean state rather than from a half replaced file.
+            closeQuietly(channel);
+            closeQuietly(dataFile);
+            channel = null;
+            dataFile = null;
+            mapped = null;
+            loaded = false;
+            index.clear();
+            liveBytes = 0;
+        }
+    }
+
+    private synchronized void writeIndexSafely() {
+        try {
+            writeIndex();
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write resolve cache index: " + e.toString());
+        }
+    }
+
+    private void writeIndex() throws IOException {
+        File tmp = new File(dir, INDEX_FILE + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(INDEX_MAGIC);
+            out.writeLong(dataSize);
+            out.writeInt(index.size());
+            for (Map.Entry<String, Entry> e : index.entrySet()) {
+                Entry entry = e.getValue();
+                out.writeUTF(e.getKey());
+                out.writeLong(entry.offset);
+                out.writeInt(entry.recordLength);
+                out.writeShort(entry.keyLength);
+                out.writeLong(entry.expiresAt);
+            }
+        } finally {
+            out.close();
+        }
+
+        if (!tmp.renameTo(new File(dir, INDEX_FILE)))
+            throw new IOException("Unable to replace the resolve cache index");
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 64);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] data) throws DataFormatException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+            byte[] buffer = new byte[4096];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    throw new DataFormatException("Truncated cache entry");
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static void closeQuietly(java.io.Closeable closeable) {
+        if (closeable == null)
+            return;
+
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Nothing to do
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2021 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.plugins.did;
+
+/**
+ * Per thread options of the resolves made by DIDEngine, for the DID adapter to read, as the DID
+ * SDK resolve calls have no way to carry them. Plain Java, so that the engine doesn't depend on a
+ * particular adapter.
+ */
+final class DIDResolveFlags {
+    // Set by callers that explicitly asked for a fresh copy from the chain.
+    private static final ThreadLocal<Boolean> forceRemote = new ThreadLocal<>();
+    // Set by callers that prefer a cached, possibly expired, response to waiting for the network.
+    private static final ThreadLocal<Boolean> allowStale = new ThreadLocal<>();
+    // Set when a stale response was served to the current thread.
+    private static final ThreadLocal<Boolean> servedStale = new ThreadLocal<>();
+
+    private DIDResolveFlags() {
+    }
+
+    /**
+     * Makes resolves from the current thread bypass the resolve cache of the adapter (responses
+     * are still stored in it).
+     */
+    static void setForceRemote(boolean force) {
+        if (force)
+            forceRemote.set(Boolean.TRUE);
+        else
+            forceRemote.remove();
+    }
+
+    static boolean isForceRemote() {
+        return Boolean.TRUE.equals(forceRemote.get());
+    }
+
+    /**
+     * Lets resolves from the current thread use expired cached responses (or cached responses
+     * even when forced), instead of waiting for the network.
+     */
+    static void setAllowStale(boolean allow) {
+        if (allow)
+            allowStale.set(Boolean.TRUE);
+        else
+            allowStale.remove();
+    }
+
+    static boolean isAllowStale() {
+        return Boolean.TRUE.equals(allowStale.get());
+    }
+
+    /**
+     * Called by the adapter when it served a stale cached response to the current thread.
+     */
+    static void markServedStale() {
+        servedStale.set(Boolean.TRUE);
+    }
+
+    /**
+     * Returns whether a stale cached response was served to the current thread since the last
+     * call, and resets that state.
+     */
+    static boolean takeServedStale() {
+        boolean stale = Boolean.TRUE.equals(servedStale.get());
+        servedStale.remove();
+        return stale;
+    }
+}
@@ -0,0 +1,366 @@
+/*
+ * Copyright (c) 2021 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.plugins.did;
+
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Set of resolver endpoints, with per endpoint latency and error tracking.
+ *
+ * Requests go to the fastest healthy endpoint. An endpoint that fails several times in a row is
+ * put aside for a while (with an increasing backoff) and only used as a last resort. When hedging
+ * is enabled, a second request is sent to the next best endpoint as soon as the first one takes
+ * longer than its usual p95 latency, and the first response wins.
+ *
+ * "mainnet" and "testnet" stand for the public resolvers of these networks, as with the DID SDK
+ * DefaultDIDAdapter.
+ */
+class DIDResolverEndpoints {
+    private static final String TAG = "DIDResolverEndpoints";
+
+    private static final int LATENCY_SAMPLES = 32;
+    private static final int MIN_SAMPLES_FOR_P95 = 8;
+    private static final long DEFAULT_HEDGE_DELAY_MS = 1000;
+    private static final long MIN_HEDGE_DELAY_MS = 50;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final int FAILURES_BEFORE_UNHEALTHY = 3;
+    private static final long BASE_BACKOFF_MS = 5000;
+    private static final long MAX_BACKOFF_MS = 5 * 60 * 1000;
+    private static final double EWMA_WEIGHT = 0.2;
+
+    // A hedged resolve uses two threads. When they are all busy, resolves are not hedged.
+    private static final int MAX_HEDGE_THREADS = 8;
+
+    private static final Map<String, List<String>> NETWORK_ENDPOINTS = new HashMap<>();
+    static {
+        NETWORK_ENDPOINTS.put("mainnet", Arrays.asList("https://api.elastos.io/eid", "https://api.trinity-tech.io/eid"));
+        NETWORK_ENDPOINTS.put("testnet", Arrays.asList("https://api-testnet.elastos.io/eid", "https://api-testnet.trinity-tech.io/eid"));
+    }
+
+    private static final ThreadPoolExecutor hedgeExecutor = new ThreadPoolExecutor(0, MAX_HEDGE_THREADS,
+            30, TimeUnit.SECONDS, new SynchronousQueue<>(), r -> {
+        Thread t = new Thread(r, "DIDResolverHedge");
+        t.setDaemon(true);
+        return t;
+    });
+
+    static class Endpoint {
+        final URL url;
+
+        private final long[] samples = new long[LATENCY_SAMPLES];
+        private int sampleCount = 0;
+        private int nextSample = 0;
+        private double ewmaMs = 0;
+        private long requests = 0;
+        private long errors = 0;
+        private int consecutiveFailures = 0;
+        private long unhealthyUntil = 0;
+
+        Endpoint(URL url) {
+            this.url = url;
+        }
+
+        synchronized void recordSuccess(long latencyMs) {
+            requests++;
+            consecutiveFailures = 0;
+            unhealthyUntil = 0;
+
+            recordLatency(latencyMs);
+        }
+
+        /**
+         * Also used alone for a request aborted because another one was faster: its latency is at
+         * least that.
+         */
+        synchronized void recordLatency(long latencyMs) {
+            samples[nextSample] = latencyMs;
+            nextSample = (nextSample + 1) % LATENCY_SAMPLES;
+            if (sampleCount < LATENCY_SAMPLES)
+                sampleCount++;
+
+            ewmaMs = (sampleCount == 1) ? latencyMs : (EWMA_WEIGHT * latencyMs + (1 - EWMA_WEIGHT) * ewmaMs);
+        }
+
+        synchronized void recordFailure() {
+            requests++;
+            errors++;
+            consecutiveFailures++;
+
+            if (consecutiveFailures >= FAILURES_BEFORE_UNHEALTHY) {
+                int exponent = Math.min(consecutiveFailures - FAILURES_BEFORE_UNHEALTHY, 6);
+                long backoff = Math.min(BASE_BACKOFF_MS << exponent, MAX_BACKOFF_MS);
+                unhealthyUntil = System.currentTimeMillis() + backoff;
+            }
+        }
+
+        synchronized boolean isHealthy(long now) {
+            return now >= unhealthyUntil;
+        }
+
+        synchronized long getUnhealthyUntil() {
+            return unhealthyUntil;
+        }
+
+        /**
+         * Endpoints never used yet score 0 so that they get a chance to be measured.
+         */
+        synchronized double getLatencyScore() {
+            return ewmaMs;
+        }
+
+        synchronized long getP95(long defaultValue) {
+            if (sampleCount < MIN_SAMPLES_FOR_P95)
+                return defaultValue;
+
+            long[] sorted = Arrays.copyOf(samples, sampleCount);
+            Arrays.sort(sorted);
+            return sorted[(int) Math.ceil(0.95 * sampleCount) - 1];
+        }
+
+        synchronized JSONObject toJson() throws JSONException {
+            JSONObject r = new JSONObject();
+            r.put("url", url.toString());
+            r.put("requests", requests);
+            r.put("errors", errors);
+            r.put("latencyMs", Math.round(ewmaMs));
+            r.put("p95Ms", getP95(-1));
+            r.put("healthy", isHealthy(System.currentTimeMillis()));
+            return r;
+        }
+    }
+
+    private final List<Endpoint> endpoints;
+    private final String networkKey;
+    private final DIDResolverTransport transport;
+    private volatile boolean hedgingEnabled = false;
+
+    DIDResolverEndpoints(List<String> urls, DIDResolverTransport transport) {
+        if (urls == null || urls.isEmpty())
+            throw new IllegalArgumentException("At least one resolver endpoint is required");
+
+        List<Endpoint> list = new ArrayList<>(urls.size());
+        for (String url : urls) {
+            if (url == null || url.isEmpty())
+                throw new IllegalArgumentException("Invalid resolver URL: " + url);
+
+            List<String> networkUrls = NETWORK_ENDPOINTS.get(url.toLowerCase());
+            for (String endpointUrl : networkUrls != null ? networkUrls : Collections.singletonList(url)) {
+                try {
+                    list.add(new Endpoint(new URL(endpointUrl)));
+                } catch (MalformedURLException e) {
+                    throw new IllegalArgumentException("Invalid resolver URL: " + url, e);
+                }
+            }
+        }
+
+        this.endpoints = Collections.unmodifiableList(list);
+        this.transport = transport;
+
+        List<String> sorted = new ArrayList<>(list.size());
+        for (Endpoint endpoint : list)
+            sorted.add(endpoint.url.toString());
+        Collections.sort(sorted);
+        this.networkKey = sorted.toString();
+    }
+
+    String getPrimaryUrl() {
+        return endpoints.get(0).url.toString();
+    }
+
+    /**
+     * Identifies this set of endpoints, whatever their order. Responses of different sets must
+     * not be mixed up, as they may come from different networks.
+     */
+    String getNetworkKey() {
+        return networkKey;
+    }
+
+    void setHedgingEnabled(boolean enabled) {
+        this.hedgingEnabled = enabled;
+    }
+
+    /**
+     * Healthy endpoints first, fastest first, then the endpoints currently put aside, the ones
+     * that will be back soonest first.
+     */
+    List<Endpoint> rank() {
+        long now = System.currentTimeMillis();
+        List<Endpoint> healthy = new ArrayList<>();
+        List<Endpoint> unhealthy = new ArrayList<>();
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.isHealthy(now))
+                healthy.add(endpoint);
+            else
+                unhealthy.add(endpoint);
+        }
+
+        Collections.sort(healthy, (a, b) -> Double.compare(a.getLatencyScore(), b.getLatencyScore()));
+        Collections.sort(unhealthy, (a, b) -> Long.compare(a.getUnhealthyUntil(), b.getUnhealthyUntil()));
+        healthy.addAll(unhealthy);
+        return healthy;
+    }
+
+    InputStream post(Map<String, String> headers, String body) throws IOException {
+        List<Endpoint> ranked = rank();
+
+        if (hedgingEnabled && ranked.size() > 1)
+            return hedgedPost(ranked.get(0), ranked.get(1), headers, body);
+
+        IOException lastError = null;
+        int attempts = Math.min(ranked.size(), MAX_ATTEMPTS);
+        for (int i = 0; i < attempts; i++) {
+            DIDOperation operation = DIDOperation.current();
+            if (operation != null)
+                operation.throwIfAborted();
+
+            try {
+                return timedPost(ranked.get(i), headers, body, null);
+            } catch (IOException e) {
+                Log.w(TAG, "Resolver " + ranked.get(i).url + " failed: " + e.toString());
+                lastError = e;
+            }
+        }
+        throw lastError;
+    }
+
+    private InputStream timedPost(Endpoint endpoint, Map<String, String> headers, String body,
+                                  DIDResolverTransport.Abort abort) throws IOException {
+        long start = System.nanoTime();
+        try {
+            InputStream is = transport.post(endpoint.url, headers, body, abort);
+            endpoint.recordSuccess((System.nanoTime() - start) / 1000000);
+            return is;
+        } catch (IOException e) {
+            // An aborted operation says nothing about the endpoint health. A request aborted
+            // because the other one of a hedge won only says it's slower.
+            DIDOperation operation = DIDOperation.current();
+            if (abort != null && abort.isAborted())
+                endpoint.recordLatency((System.nanoTime() - start) / 1000000);
+            else if (operation == null || !operation.isAborted())
+                endpoint.recordFailure();
+            throw e;
+        }
+    }
+
+    /**
+     * Sends the request to the primary endpoint, and also to the secondary one if the primary
+     * fails or is slower than its p95. As soon as one request succeeds, the other one is aborted
+     * so that its thread and its socket are released.
+     */
+    private InputStream hedgedPost(Endpoint primary, Endpoint secondary, Map<String, String> headers, String body) throws IOException {
+        ExecutorCompletionService<InputStream> completion = new ExecutorCompletionService<>(hedgeExecutor);
+        // Requests still running.
+        Map<Future<InputStream>, DIDResolverTransport.Abort> running = new HashMap<>();
+        DIDOperation operation = DIDOperation.current();
+        long hedgeDelay = Math.max(primary.getP95(DEFAULT_HEDGE_DELAY_MS), MIN_HEDGE_DELAY_MS);
+
+        if (!submit(completion, running, operation, primary, headers, body))
+            return timedPost(primary, headers, body, null);
+
+        boolean hedged = false;
+        IOException lastError = null;
+
+        try {
+            while (true) {
+                Future<InputStream> done = hedged ? completion.take() : completion.poll(hedgeDelay, TimeUnit.MILLISECONDS);
+                if (done == null) {
+                    // If no hedge thread is available, simply keep waiting for the primary.
+                    Log.d(TAG, "Resolver " + primary.url + " slower than " + hedgeDelay + "ms, hedging to " + secondary.url);
+                    submit(completion, running, operation, secondary, headers, body);
+                    hedged = true;
+                    continue;
+                }
+
+                running.remove(done);
+                try {
+                    return done.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    lastError = (cause instanceof IOException) ? (IOException) cause : new IOException(cause);
+                }
+
+                if (!hedged) {
+                    // Primary failed before the hedge delay: fail over right away.
+                    hedged = true;
+                    if (!submit(completion, running, operation, secondary, headers, body))
+                        return timedPost(secondary, headers, body, null);
+                } else if (running.isEmpty()) {
+                    throw lastError;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Resolve interrupted");
+        } finally {
+            for (Map.Entry<Future<InputStream>, DIDResolverTransport.Abort> request : running.entrySet()) {
+                request.getValue().abort();
+                request.getKey().cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Returns false if all hedge threads are busy.
+     */
+    private boolean submit(ExecutorCompletionService<InputStream> completion,
+                           Map<Future<InputStream>, DIDResolverTransport.Abort> running, DIDOperation operation,
+                           Endpoint endpoint, Map<String, String> headers, String body) {
+        DIDResolverTransport.Abort abort = new DIDResolverTransport.Abort();
+        try {
+            running.put(completion.submit(() -> DIDOperation.callAs(operation, () -> timedPost(endpoint, headers, body, abort))), abort);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    JSONArray toJson() throws JSONException {
+        JSONArray array = new JSONArray();
+        for (Endpoint endpoint : endpoints)
+            array.put(endpoint.toJson());
+        return array;
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2021 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.plugins.did;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * HTTP transport used by DIDPluginAdapter to talk to the resolver.
+ *
+ * Connections are kept alive and pooled by the platform HttpURLConnection implementation, as
+ * long as every response is fully read and closed. So responses are always drained here
+ * (including error responses) before being handed back to the DID SDK, and the TLS session to
+ * the resolver is reused from one resolve to the next instead of being negotiated each time.
+ */
+class DIDResolverTransport {
+    static final int DEFAULT_CONNECT_TIMEOUT_MS = 10000;
+    static final int DEFAULT_READ_TIMEOUT_MS = 20000;
+    static final int MAX_IDLE_CONNECTIONS = 8;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String USER_AGENT = "Elastos-DID-Cordova-Plugin";
+
+    static {
+        // Read by the platform connection pool when it's created, so this must happen early.
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", String.valueOf(MAX_IDLE_CONNECTIONS));
+    }
+
+    /**
+     * Lets another thread abort a request in flight, by disconnecting its connection. Used to
+     * release the losing request of a hedge.
+     */
+    static class Abort {
+        private HttpURLConnection connection = null;
+        private boolean aborted = false;
+
+        synchronized void abort() {
+            aborted = true;
+            if (connection != null)
+                connection.disconnect();
+        }
+
+        synchronized boolean isAborted() {
+            return aborted;
+        }
+
+        private synchronized void attach(HttpURLConnection connection) throws InterruptedIOException {
+            if (aborted)
+                throw new InterruptedIOException("Request aborted");
+
+            this.connection = connection;
+        }
+    }
+
+    private volatile int connectTimeoutMs = DEFAULT_CONNECT_TIMEOUT_MS;
+    private volatile int readTimeoutMs = DEFAULT_READ_TIMEOUT_MS;
+
+    void setTimeouts(int connectTimeoutMs, int readTimeoutMs) {
+        if (connectTimeoutMs <= 0 || readTimeoutMs <= 0)
+            throw new IllegalArgumentException("Timeouts must be positive");
+
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.readTimeoutMs = readTimeoutMs;
+    }
+
+    int getConnectTimeout() {
+        return connectTimeoutMs;
+    }
+
+    int getReadTimeout() {
+        return readTimeoutMs;
+    }
+
+    /**
+     * Posts a JSON body and returns the whole, already decompressed, response body.
+     */
+    InputStream post(URL url, Map<String, String> headers, String body) throws IOException {
+        return post(url, headers, body, null);
+    }
+
+    /**
+     * Same as post(url, headers, body), and the request can be aborted through abort.
+     */
+    InputStream post(URL url, Map<String, String> headers, String body, Abort abort) throws IOException {
+        // When running for an operation, don't go past its deadline, and let it abort the request.
+        DIDOperation operation = DIDOperation.current();
+        if (operation != null)
+            operation.throwIfAborted();
+
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        if (abort != null)
+            abort.attach(connection);
+
+        Runnable abortHook = connection::disconnect;
+        if (operation != null)
+            operation.addCancelHook(abortHook);
+
+        int code;
+        DIDTracer.Span networkSpan = DIDTracer.begin("POST " + url.getHost(), DIDTracer.NETWORK);
+        try {
+            connection.setConnectTimeout(withinDeadline(connectTimeoutMs, operation));
+            connection.setReadTimeout(withinDeadline(readTimeoutMs, operation));
+            connection.setUseCaches(false);
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("User-Agent", USER_AGENT);
+            connection.setRequestProperty("Content-Type", "application/json");
+            connection.setRequestProperty("Accept", "application/json");
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+            connection.setRequestProperty("Connection", "keep-alive");
+            if (headers != null) {
+                for (Map.Entry<String, String> header : headers.entrySet())
+                    connection.setRequestProperty(header.getKey(), header.getValue());
+            }
+
+            byte[] payload = body.getBytes(UTF8);
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(payload.length);
+
+            OutputStream os = connection.getOutputStream();
+            try {
+                os.write(payload);
+            } finally {
+                os.close();
+            }
+
+            code = connection.getResponseCode();
+            if (code >= 200 && code < 300) {
+                InputStream is = connection.getInputStream();
+                if ("gzip".equalsIgnoreCase(connection.getContentEncoding()))
+                    is = new GZIPInputStream(is);
+
+                return new ByteArrayInputStream(readFully(is));
+            }
+
+            // Drain the error body, otherwise the connection can't go back to the pool.
+            drain(connection.getErrorStream());
+        } catch (IOException e) {
+            // Don't keep a connection in an unknown state around.
+            connection.disconnect();
+            if (operation != null)
+                operation.throwIfAborted();
+            if (abort != null && abort.isAborted())
+                throw new InterruptedIOException("Request aborted");
+            throw e;
+        } finally {
+            if (operation != null)
+                operation.removeCancelHook(abortHook);
+            networkSpan.end();
+        }
+
+        throw new IOException("HTTP error with status: " + code);
+    }
+
+    private static int withinDeadline(int timeoutMs, DIDOperation operation) {
+        long remaining = operation != null ? operation.remainingMs() : -1;
+        return remaining > 0 ? (int) Math.min(timeoutMs, remaining) : timeoutMs;
+    }
+
+    private static byte[] readFully(InputStream is) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = is.read(buffer)) != -1)
+                out.write(buffer, 0, read);
+            return out.toByteArray();
+        } finally {
+            is.close();
+        }
+    }
+
+    private static void drain(InputStream is) {
+        if (is == null)
+            return;
+
+        try {
+            readFully(is);
+        } catch (IOException e) {
+            // Nothing to do, the connection will simply not be reused.
+        }
+    }
+}
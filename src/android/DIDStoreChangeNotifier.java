@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2021 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package org.elastos.plugins.did;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the changes made to DID stores, and delivers them in batches.
+ *
+ * Changes posted within WINDOW_MS of the first pending one are delivered together, and the
+ * same change posted several times in a window is delivered once.
+ */
+class DIDStoreChangeNotifier {
+    static final long WINDOW_MS = 200;
+
+    // Change types
+    static final String DID_ADDED = "didAdded";
+    static final String DID_DELETED = "didDeleted";
+    static final String DOCUMENT_UPDATED = "documentUpdated";
+    static final String CREDENTIAL_STORED = "credentialStored";
+    static final String CREDENTIAL_DELETED = "credentialDeleted";
+    // Many changes at once (import...): the store should be listed again.
+    static final String STORE_CHANGED = "storeChanged";
+
+    interface Listener {
+        void onStoreChanges(JSONArray changes);
+    }
+
+    private static class Change {
+        final String storeId;
+        final String type;
+        final String id;
+
+        Change(String storeId, String type, String id) {
+            this.storeId = storeId;
+            this.type = type;
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Change))
+                return false;
+
+            Change other = (Change) o;
+            return storeId.equals(other.storeId) && type.equals(other.type)
+                    && (id == null ? other.id == null : id.equals(other.id));
+        }
+
+        @Override
+        public int hashCode() {
+            return (storeId.hashCode() * 31 + type.hashCode()) * 31 + (id != null ? id.hashCode() : 0);
+        }
+
+        JSONObject toJson() throws JSONException {
+            JSONObject r = new JSONObject();
+            r.put("storeId", storeId);
+            r.put("type", type);
+            if (id != null)
+                r.put("id", id);
+            return r;
+        }
+    }
+
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "DIDStoreChangeNotifier");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Listener listener;
+    private Set<Change> pending = new LinkedHashSet<>();
+
+    DIDStoreChangeNotifier(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @param id DID or credential id the change is about, null for STORE_CHANGED.
+     */
+    synchronized void post(String storeId, String type, String id) {
+        if (pending.isEmpty())
+            scheduler.schedule(this::flush, WINDOW_MS, TimeUnit.MILLISECONDS);
+
+        pending.add(new Change(storeId, type, id));
+    }
+
+    private void flush() {
+        List<Change> changes;
+        synchronized (this) {
+            changes = new ArrayList<>(pending);
+            pending = new LinkedHashSet<>();
+        }
+
+        try {
+            JSONArray r = new JSONArray();
+            for (Change change : changes)
+                r.put(change.toJson());
+            listener.onStoreChanges(r);
+        }
+        catch (JSONException e) {
+            // Can't happen with string values.
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2021 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.plugins.did;
+
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Deletes DID store directories without making the caller wait for it.
+ *
+ * A deleted store directory is first renamed to a tombstone next to it, which is instant and
+ * makes the store id free for a new store right away. Tombstones are then removed by a low
+ * priority background thread. Tombstones left behind when the app was killed are found and
+ * removed the next time a reclaimer is created for the same directory.
+ */
+class DIDStoreReclaimer {
+    private static final String TOMBSTONE_PREFIX = ".deleted.";
+
+    private static final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "DIDStoreReclaimer");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+
+    private final File rootDir;
+
+    /**
+     * @param rootDir Directory holding the store directories.
+     */
+    DIDStoreReclaimer(File rootDir) {
+        this.rootDir = rootDir;
+
+        File[] tombstones = rootDir.listFiles((dir, name) -> name.startsWith(TOMBSTONE_PREFIX));
+        if (tombstones != null) {
+            for (File tombstone : tombstones)
+                worker.execute(() -> deleteFile(tombstone));
+        }
+    }
+
+    /**
+     * Makes a store directory disappear, and deletes its content in background.
+     */
+    void reclaim(File storeDir) {
+        if (!storeDir.exists())
+            return;
+
+        File tombstone = new File(rootDir, TOMBSTONE_PREFIX + storeDir.getName() + "." + System.nanoTime());
+        if (storeDir.renameTo(tombstone)) {
+            worker.execute(() -> deleteFile(tombstone));
+        }
+        else {
+            // Can't hide it (another file system?), delete in place.
+            deleteFile(storeDir);
+        }
+    }
+
+    private static void deleteFile(File file) {
+        if (file.isDirectory()) {
+            File[] children = file.listFiles();
+            if (children != null) {
+                for (File child : children)
+                    deleteFile(child);
+            }
+        }
+
+        file.delete();
+    }
+}
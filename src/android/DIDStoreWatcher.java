@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) 2021 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package org.elastos.plugins.did;
+
+import android.os.FileObserver;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the files of a DID store, to find out about changes made by other components that use
+ * the same store directory (Intent plugin, Hive SDK...).
+ *
+ * The DID SDK file system storage keeps each DID in data/ids/<method specific id>, with its
+ * document and metadata files, and a credentials directory holding one directory per credential.
+ * FileObserver is not recursive, so the watcher observes:
+ * - the store directory, for the data directory being swapped (password change, import),
+ * - the data directory, for the ids directory being created, with the first DIDs,
+ * - data/ids, for DIDs added or deleted,
+ * - each DID directory, for document and metadata writes,
+ * - each DID credentials directory, for credentials added or deleted.
+ *
+ * Changes are reported once things settle, SETTLE_MS after the last one, with the set of DIDs
+ * they are about, or null if the data directory was swapped. Writes made by this plugin are
+ * reported too: the engine tells them apart by comparing the DID files with their state after
+ * those writes.
+ */
+class DIDStoreWatcher implements DIDEngine.StoreWatcher {
+    static final long SETTLE_MS = 200;
+
+    private static final int DIR_EVENTS = FileObserver.CREATE | FileObserver.DELETE
+            | FileObserver.MOVED_FROM | FileObserver.MOVED_TO;
+    private static final int FILE_EVENTS = DIR_EVENTS | FileObserver.CLOSE_WRITE;
+    private static final int SELF_EVENTS = FileObserver.DELETE_SELF | FileObserver.MOVE_SELF;
+
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "DIDStoreWatcher");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final String storeId;
+    private final File storeDir;
+    private final DIDEngine.StoreWatcher.Listener listener;
+
+    // Observers must be referenced to keep watching.
+    private final Map<String, FileObserver> observers = new HashMap<>();
+    private boolean watching = false;
+
+    private Set<String> changedDids = new HashSet<>();
+    private boolean storeChanged = false;
+    private long changeCount = 0;
+
+    DIDStoreWatcher(String storeId, File storeDir, DIDEngine.StoreWatcher.Listener listener) {
+        this.storeId = storeId;
+        this.storeDir = storeDir;
+        this.listener = listener;
+    }
+
+    @Override
+    public synchronized void start() {
+        watching = true;
+        observe(storeDir.getPath(), DIR_EVENTS, (event, name) -> {
+            if ("data".equals(name))
+                onStoreChanged();
+        });
+        watchIds();
+    }
+
+    @Override
+    public synchronized void stop() {
+        watching = false;
+        for (FileObserver observer : observers.values())
+            observer.stopWatching();
+        observers.clear();
+    }
+
+    private File getIdsDir() {
+        return new File(new File(storeDir, "data"), "ids");
+    }
+
+    private synchronized void watchIds() {
+        if (!watching)
+            return;
+
+        File idsDir = getIdsDir();
+        // Created along with the first DID.
+        observe(idsDir.getParent(), DIR_EVENTS, (event, name) -> {
+            if ("ids".equals(name))
+                onIdsCreated();
+        });
+
+        observe(idsDir.getPath(), DIR_EVENTS | SELF_EVENTS, (event, name) -> {
+            if ((event & SELF_EVENTS) != 0) {
+                onStoreChanged();
+            }
+            else if (name != null) {
+                watchDid(name);
+                onDidChanged(name);
+            }
+        });
+
+        String[] names = idsDir.list();
+        if (names != null) {
+            for (String name : names)
+                watchDid(name);
+        }
+    }
+
+    private synchronized void watchDid(String methodSpecificId) {
+        if (!watching)
+            return;
+
+        File didDir = new File(getIdsDir(), methodSpecificId);
+        if (!didDir.isDirectory()) {
+            unobserve(didDir.getPath());
+            unobserve(new File(didDir, "credentials").getPath());
+            return;
+        }
+
+        observe(didDir.getPath(), FILE_EVENTS, (event, name) -> {
+            if ("credentials".equals(name))
+                watchCredentials(methodSpecificId);
+            onDidChanged(methodSpecificId);
+        });
+        watchCredentials(methodSpecificId);
+    }
+
+    private synchronized void watchCredentials(String methodSpecificId) {
+        if (!watching)
+            return;
+
+        File credentialsDir = new File(new File(getIdsDir(), methodSpecificId), "credentials");
+        if (credentialsDir.isDirectory())
+            observe(credentialsDir.getPath(), DIR_EVENTS, (event, name) -> onDidChanged(methodSpecificId));
+    }
+
+    private interface EventHandler {
+        void onEvent(int event, String name);
+    }
+
+    private void observe(String path, int mask, EventHandler handler) {
+        if (observers.containsKey(path))
+            return;
+
+        FileObserver observer = new FileObserver(path, mask) {
+            @Override
+            public void onEvent(int event, String name) {
+                handler.onEvent(event, name);
+            }
+        };
+        observers.put(path, observer);
+        observer.startWatching();
+    }
+
+    private void unobserve(String path) {
+        FileObserver observer = observers.remove(path);
+        if (observer != null)
+            observer.stopWatching();
+    }
+
+    private synchronized void onDidChanged(String methodSpecificId) {
+        changedDids.add("did:elastos:" + methodSpecificId);
+        scheduleReport();
+    }
+
+    private synchronized void onIdsCreated() {
+        // Observed before it existed: observe it again.
+        unobserve(getIdsDir().getPath());
+        watchIds();
+
+        String[] names = getIdsDir().list();
+        if (names != null) {
+            for (String name : names)
+                changedDids.add("did:elastos:" + name);
+        }
+        scheduleReport();
+    }
+
+    private synchronized void onStoreChanged() {
+        storeChanged = true;
+
+        // The data directory was replaced: observe the new one.
+        for (String path : new HashSet<>(observers.keySet())) {
+            if (!path.equals(storeDir.getPath()))
+                unobserve(path);
+        }
+        watchIds();
+
+        scheduleReport();
+    }
+
+    private void scheduleReport() {
+        long count = ++changeCount;
+        scheduler.schedule(() -> report(count), SETTLE_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private void report(long count) {
+        Set<String> dids;
+        synchronized (this) {
+            // Another change came since: wait for it to settle.
+            if (count != changeCount || !watching)
+                return;
+
+            dids = storeChanged ? null : changedDids;
+            changedDids = new HashSet<>();
+            storeChanged = false;
+        }
+
+        listener.onStoreFilesChanged(storeId, dids);
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2021 Elastos Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.elastos.plugins.did;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Lightweight tracing of the phases of plugin actions (argument parsing, key decryption, disk I/O,
+ * network resolution, result serialization...).
+ *
+ * Spans are kept in a fixed size in-memory ring buffer, the oldest ones being overwritten, and can
+ * be exported in the Chrome trace-event format (chrome://tracing, Perfetto). Tracing is disabled by
+ * default; spans then cost a volatile read.
+ *
+ * Usage:
+ *   DIDTracer.Span span = DIDTracer.begin("loadDid", "disk");
+ *   try {
+ *       ...
+ *   } finally {
+ *       span.end();
+ *   }
+ *
+ * Plain Java, the host gives the process id put in exported traces (DIDPlugin gives the Android
+ * one), 0 if none.
+ */
+final class DIDTracer {
+    static final int CAPACITY = 4096;
+
+    // Categories
+    static final String ARGS = "args";
+    static final String DISK = "disk";
+    static final String CRYPTO = "crypto";
+    static final String NETWORK = "network";
+    static final String CACHE = "cache";
+    static final String SERIALIZE = "serialize";
+    static final String ACTION = "action";
+
+    interface PidSource {
+        int myPid();
+    }
+
+    private static volatile boolean enabled = false;
+    private static volatile PidSource pidSource = () -> 0;
+
+    private static final String[] names = new String[CAPACITY];
+    private static final String[] categories = new String[CAPACITY];
+    private static final long[] starts = new long[CAPACITY];
+    private static final long[] durations = new long[CAPACITY];
+    private static final long[] threadIds = new long[CAPACITY];
+    private static final Map<Long, String> threadNames = new HashMap<>();
+    private static long written = 0;
+
+    // Trace timestamps are relative to this, in microseconds.
+    private static final long originNanos = System.nanoTime();
+
+    static class Span {
+        private final String name;
+        private final String category;
+        private final long startNanos;
+
+        private Span(String name, String category) {
+            this.name = name;
+            this.category = category;
+            this.startNanos = System.nanoTime();
+        }
+
+        void end() {
+            record(name, category, startNanos, System.nanoTime());
+        }
+    }
+
+    private static final Span NO_SPAN = new Span(null, null) {
+        @Override
+        void end() {
+        }
+    };
+
+    private DIDTracer() {
+    }
+
+    static void setEnabled(boolean enable) {
+        enabled = enable;
+    }
+
+    static void setPidSource(PidSource source) {
+        pidSource = source;
+    }
+
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    static Span begin(String name, String category) {
+        return enabled ? new Span(name, category) : NO_SPAN;
+    }
+
+    /**
+     * Records a span measured by the caller, from System.nanoTime() values.
+     */
+    static void record(String name, String category, long startNanos, long endNanos) {
+        if (!enabled)
+            return;
+
+        Thread thread = Thread.currentThread();
+        synchronized (DIDTracer.class) {
+            int slot = (int) (written % CAPACITY);
+            names[slot] = name;
+            categories[slot] = category;
+            starts[slot] = startNanos;
+            durations[slot] = endNanos - startNanos;
+            threadIds[slot] = thread.getId();
+            written++;
+
+            if (!threadNames.containsKey(thread.getId()))
+                threadNames.put(thread.getId(), thread.getName());
+        }
+    }
+
+    static synchronized void clear() {
+        written = 0;
+        threadNames.clear();
+    }
+
+    /**
+     * Exports the recorded spans, oldest first, as a Chrome trace-event JSON object.
+     */
+    static synchronized JSONObject toChromeTrace() throws JSONException {
+        JSONArray events = new JSONArray();
+        int pid = pidSource.myPid();
+
+        for (Map.Entry<Long, String> thread : threadNames.entrySet()) {
+            JSONObject args = new JSONObject();
+            args.put("name", thread.getValue());
+
+            JSONObject event = new JSONObject();
+            event.put("name", "thread_name");
+            event.put("ph", "M");
+            event.put("pid", pid);
+            event.put("tid", thread.getKey());
+            event.put("args", args);
+            events.put(event);
+        }
+
+        long first = Math.max(0, written - CAPACITY);
+        for (long i = first; i < written; i++) {
+            int slot = (int) (i % CAPACITY);
+
+            JSONObject event = new JSONObject();
+            event.put("name", names[slot]);
+            event.put("cat", categories[slot]);
+            event.put("ph", "X");
+            event.put("ts", (starts[slot] - originNanos) / 1000);
+            event.put("dur", durations[slot] / 1000);
+            event.put("pid", pid);
+            event.put("tid", threadIds[slot]);
+            events.put(event);
+        }
+
+        JSONObject trace = new JSONObject();
+        trace.put("traceEvents", events);
+        trace.put("displayTimeUnit", "ms");
+        return trace;
+    }
+}
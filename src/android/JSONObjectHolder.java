@@ -86,4 +86,92 @@ class JSONObjectHolder {
         r.put("items", array);
         return r;
     }
-}
\ No newline at end of file
+
+    /**
+     * Projection of a document on the given fields:
+     * - id, controllers, expires, expired, updated (publication time)
+     * - defaultPublicKey, publicKeys ({ id, controller, keyBase58 }), authenticationKeys (ids)
+     * - services ({ id, type, serviceEndpoint }), or service:<id> for a single one (null if none)
+     * - credentialIds
+     *
+     * Throws IllegalArgumentException for unknown fields.
+     */
+    public static JSONObject getDocumentFieldsJson(DIDDocument doc, JSONArray paths) throws JSONException {
+        JSONObject r = new JSONObject();
+        for (int i = 0; i < paths.length(); i++) {
+            String path = paths.getString(i);
+
+            if (path.startsWith("service:")) {
+                DIDDocument.Service service = doc.getService(path.substring("service:".length()));
+                r.put(path, service != null ? getServiceInfoJson(service) : JSONObject.NULL);
+                continue;
+            }
+
+            switch (path) {
+                case "id":
+                    r.put(path, doc.getSubject().toString());
+                    break;
+                case "controllers": {
+                    JSONArray controllers = new JSONArray();
+                    for (DID controller : doc.getControllers())
+                        controllers.put(controller.toString());
+                    r.put(path, controllers);
+                    break;
+                }
+                case "expires":
+                    r.put(path, doc.getExpires());
+                    break;
+                case "expired":
+                    r.put(path, doc.isExpired());
+                    break;
+                case "updated":
+                    r.put(path, doc.getMetadata().getPublishTime());
+                    break;
+                case "defaultPublicKey": {
+                    DIDDocument.PublicKey key = doc.getDefaultPublicKey();
+                    r.put(path, key != null ? getPublicKeyInfoJson(key) : JSONObject.NULL);
+                    break;
+                }
+                case "publicKeys": {
+                    JSONArray keys = new JSONArray();
+                    for (DIDDocument.PublicKey key : doc.getPublicKeys())
+                        keys.put(getPublicKeyInfoJson(key));
+                    r.put(path, keys);
+                    break;
+                }
+                case "authenticationKeys": {
+                    JSONArray keys = new JSONArray();
+                    for (DIDDocument.PublicKey key : doc.getAuthenticationKeys())
+                        keys.put(key.getId().toString());
+                    r.put(path, keys);
+                    break;
+                }
+                case "services": {
+                    JSONArray services = new JSONArray();
+                    for (DIDDocument.Service service : doc.getServices())
+                        services.put(getServiceInfoJson(service));
+                    r.put(path, services);
+                    break;
+                }
+                case "credentialIds": {
+                    JSONArray ids = new JSONArray();
+                    for (VerifiableCredential credential : doc.getCredentials())
+                        ids.put(credential.getId().toString());
+                    r.put(path, ids);
+                    break;
+                }
+                default:
+                    throw new IllegalArgumentException("Unknown document field " + path);
+            }
+        }
+        return r;
+    }
+
+    public static JSONObject getServiceInfoJson(DIDDocument.Service entry) throws JSONException {
+        JSONObject r = new JSONObject();
+        r.put("id", entry.getId().toString());
+        r.put("type", entry.getType());
+        r.put("serviceEndpoint", entry.getServiceEndpoint());
+        return r;
+    }
+}
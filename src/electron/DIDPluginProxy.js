@@ -1,3 +1,18 @@
+// Same error as the Android plugin for an unknown action.
+const errCodeActionNotFound = 10014;
+
+function unsupported(action) {
+    return function(success, error, opts) {
+        error({ code: errCodeActionNotFound, message: action + " is not supported on Electron" });
+    };
+}
+
+// Drops the operation options that may follow the given number of arguments: deadlines and
+// cancellation are not supported on Electron.
+function withoutOperationOptions(opts, count) {
+    return opts.length > count ? opts.slice(0, count) : opts;
+}
+
 var DIDPluginProxy = {
     getVersion: async function(success, error, opts) {
         await window.didManagerImpl.getVersion(success, error, opts);
@@ -30,9 +45,14 @@ var DIDPluginProxy = {
     },
 
     DIDManager_resolveDIDDocument: async function(success, error, opts) {
-        await window.didManagerImpl.DIDManager_resolveDIDDocument(success, error, opts);
+        await window.didManagerImpl.DIDManager_resolveDIDDocument(success, error, withoutOperationOptions(opts, 2));
     },
 
+    // Document handles and field projection are not supported on Electron.
+    DIDManager_resolveDIDDocumentHandle: unsupported("DIDManager_resolveDIDDocumentHandle"),
+
+    getDocumentFields: unsupported("getDocumentFields"),
+
     DIDStore_changePassword: async function(success, error, opts) {
         await window.didManagerImpl.DIDStore_changePassword(success, error, opts);
     },
@@ -46,7 +66,7 @@ var DIDPluginProxy = {
     },
 
     synchronize: async function(success, error, opts) {
-        await window.didManagerImpl.synchronize(success, error, opts);
+        await window.didManagerImpl.synchronize(success, error, withoutOperationOptions(opts, 2));
     },
 
     deleteDid: async function(success, error, opts) {
@@ -65,8 +85,10 @@ var DIDPluginProxy = {
         await window.didManagerImpl.loadDid(success, error, opts);
     },
 
+    loadDidHandle: unsupported("loadDidHandle"),
+
     publishDid: async function(success, error, opts) {
-        await window.didManagerImpl.publishDid(success, error, opts);
+        await window.didManagerImpl.publishDid(success, error, withoutOperationOptions(opts, 3));
     },
 
     resolveDid: async function(success, error, opts) {
@@ -178,7 +200,7 @@ var DIDPluginProxy = {
     },
 
     DIDManager_parseJWT: async function(success, error, opts) {
-        await window.didManagerImpl.DIDManager_parseJWT(success, error, opts);
+        await window.didManagerImpl.DIDManager_parseJWT(success, error, withoutOperationOptions(opts, 2));
     }
 };
 
@@ -181,6 +181,11 @@ enum AppError: Error {
             return
     }
 
+    /** For actions of the JS API that are only implemented on Android. */
+    private func sendUnsupported(_ command: CDVInvokedUrlCommand) {
+        self.error(command, code: DIDPlugin.errCodeActionNotFound, msg: command.methodName + " is not supported on iOS")
+    }
+
     private func parametersCheckNull(_ command: CDVInvokedUrlCommand) -> Bool {
         for i in 1 ... command.arguments.count {
             if command.arguments[i - 1] is NSNull {
@@ -366,7 +371,8 @@ enum AppError: Error {
     }
 
     @objc func DIDManager_resolveDIDDocument(_ command: CDVInvokedUrlCommand) {
-        guard command.arguments.count == 2 else {
+        // Operation options may be passed as the last argument. Deadlines and cancellation are not supported on iOS.
+        guard command.arguments.count == 2 || command.arguments.count == 3 else {
             self.sendWrongParametersCount(command, expected: 2)
             return
         }
@@ -410,6 +416,15 @@ enum AppError: Error {
         }
     }
 
+    // Document handles and field projection are not supported on iOS.
+    @objc func DIDManager_resolveDIDDocumentHandle(_ command: CDVInvokedUrlCommand) {
+        self.sendUnsupported(command)
+    }
+
+    @objc func getDocumentFields(_ command: CDVInvokedUrlCommand) {
+        self.sendUnsupported(command)
+    }
+
     @objc func DIDStore_changePassword(_ command: CDVInvokedUrlCommand) {
         guard command.arguments.count == 3 else {
             self.sendWrongParametersCount(command, expected: 3)
@@ -523,7 +538,8 @@ enum AppError: Error {
     }
 
     @objc func synchronize(_ command: CDVInvokedUrlCommand) {
-        guard command.arguments.count == 2 else {
+        // Operation options may be passed as the last argument. Deadlines and cancellation are not supported on iOS.
+        guard command.arguments.count == 2 || command.arguments.count == 3 else {
             self.sendWrongParametersCount(command, expected: 2)
             return
         }
@@ -641,6 +657,10 @@ enum AppError: Error {
         print("load did")
     }
 
+    @objc func loadDidHandle(_ command: CDVInvokedUrlCommand) {
+        self.sendUnsupported(command)
+    }
+
     @objc func listDids(_ command: CDVInvokedUrlCommand) {
         guard command.arguments.count == 2 else {
             self.sendWrongParametersCount(command, expected: 2)
@@ -663,7 +683,8 @@ enum AppError: Error {
     }
 
     @objc func publishDid(_ command: CDVInvokedUrlCommand) {
-        guard command.arguments.count == 3 else {
+        // Operation options may be passed as the last argument. Deadlines and cancellation are not supported on iOS.
+        guard command.arguments.count == 3 || command.arguments.count == 4 else {
             self.sendWrongParametersCount(command, expected: 3)
             return
         }
@@ -1397,7 +1418,8 @@ enum AppError: Error {
     }
 
     @objc func DIDManager_parseJWT(_ command: CDVInvokedUrlCommand) {
-        guard command.arguments.count == 2 else {
+        // Operation options may be passed as the last argument. Deadlines and cancellation are not supported on iOS.
+        guard command.arguments.count == 2 || command.arguments.count == 3 else {
             self.sendWrongParametersCount(command, expected: 2)
             return
         }
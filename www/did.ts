@@ -62,9 +62,11 @@ class DIDImpl implements DIDPlugin.DID {
 
     resolveDidDocument(onSuccess: (didDocument: DIDPlugin.DIDDocument) => void, onError?: (err: any) => void) {
         var storeId = this.storeId;
-        var _onSuccess = function (ret: { diddoc: string, updated: string }) {
+        var _onSuccess = function (ret: { diddoc: string, updated: string, stale?: boolean }) {
             var diddoc = NativeDIDDocument.createFromJson(ret.diddoc, ret.updated);
-            onSuccess(diddoc.toDIDDocument(storeId));
+            var didDocument = diddoc.toDIDDocument(storeId) as DIDDocumentImpl;
+            didDocument.stale = !!ret.stale;
+            onSuccess(didDocument);
         }
 
         exec(_onSuccess, onError, 'DIDPlugin', 'resolveDid', [this.didString]);
@@ -209,6 +211,16 @@ class DIDImpl implements DIDPlugin.DID {
 
         exec(_onSuccess, onError, 'DIDPlugin', 'createVerifiablePresentationFromCredentials', [this.storeId, this.didString, nativeCredentials, realm, nonce, storepass]);
     }
+
+    createVerifiablePresentationFromIds(credentialIds: DIDPlugin.CredentialID[], realm: string, nonce: string, storepass: string, onSuccess: (presentation: DIDPlugin.VerifiablePresentation) => void, onError?: (err: any) => void) {
+        var _onSuccess = function (presentationJson) {
+            let builder: VerifiablePresentationBuilderImpl = didManager.VerifiablePresentationBuilder as VerifiablePresentationBuilderImpl;
+            let presentation = builder.fromNativeJson(presentationJson);
+            onSuccess(presentation);
+        }
+
+        exec(_onSuccess, onError, 'DIDPlugin', 'createVerifiablePresentationFromCredentials', [this.storeId, this.didString, credentialIds, realm, nonce, storepass]);
+    }
 }
 
 class NativeDIDDocument {
@@ -324,6 +336,7 @@ class DIDDocumentImpl implements DIDPlugin.DIDDocument {
     authorization: DIDPlugin.PublicKey[];
     services: ServiceImpl[];
     expires: Date;
+    stale: boolean = false;
     //proof: DIDPlugin.Proof;
     //deactivated: boolean;
     //alias: string;
@@ -348,6 +361,10 @@ class DIDDocumentImpl implements DIDPlugin.DIDDocument {
         return this.expires;
     }
 
+    isStale(): boolean {
+        return this.stale;
+    }
+
     getPublicKeyCount(): number {
         return this.getPublicKeys().length;
     }
@@ -483,14 +500,34 @@ class DIDDocumentImpl implements DIDPlugin.DIDDocument {
         exec(onSuccess, onError, 'DIDPlugin', 'signDigest', [this.id.getDIDString(), storePass, digest]);
     }
 
-    publish(storepass: string, onSuccess?: () => void, onError?: (err: any) => void) {
-        exec(onSuccess, onError, 'DIDPlugin', 'publishDid', [this.storeId, this.id.getDIDString(), storepass]);
+    signDigests(storePass: string, digests: string[], onSuccess: (batch: DIDPlugin.DigestBatchSignature) => void, onError?: (err: any) => void) {
+        exec(onSuccess, onError, 'DIDPlugin', 'signDigests', [this.id.getDIDString(), storePass, digests]);
+    }
+
+    verifyDigestProof(signature: string, digest: string, index: number, count: number, proof: string[], onSuccess: () => void, onError?: (err: any) => void) {
+        exec(onSuccess, onError, 'DIDPlugin', 'verifyDigestProof', [this.id.getDIDString(), signature, digest, index, count, proof]);
+    }
+
+    publish(storepass: string, onSuccess?: () => void, onError?: (err: any) => void, options?: DIDPlugin.OperationOptions): number {
+        let args: any[] = [this.storeId, this.id.getDIDString(), storepass];
+        let operationId = OperationHelper.appendToArgs(args, options);
+        exec(onSuccess, onError, 'DIDPlugin', 'publishDid', args);
+        return operationId;
     }
 
     createJWT(properties: any, validityDays: number, storepass: string, onSuccess: (token: string) => void, onError?: (err: any) => void) {
         exec(onSuccess, onError, 'DIDPlugin', 'createJWT', [this.id.getDIDString(), properties, validityDays, storepass]);
     }
 
+    createJWTs(header: any, validitySeconds: number, claimSets: any[], storepass: string, onSuccess: (tokens: string[]) => void, onError?: (err: any) => void, options?: DIDPlugin.OperationOptions): number {
+        let args: any[] = [this.id.getDIDString(), header || {}, validitySeconds, claimSets, storepass];
+        let operationId = OperationHelper.appendToArgs(args, options);
+        exec((ret: { tokens: string[] }) => {
+            onSuccess(ret.tokens);
+        }, onError, 'DIDPlugin', 'createJWTs', args);
+        return operationId;
+    }
+
     toJson(): Promise<string> {
         return new Promise((resolve, reject) => {
             exec((jsonString) => {
@@ -651,6 +688,39 @@ enum NativeDIDStoreFilter {
     DID_ALL = 2
 }
 
+class OperationHelper {
+    private static nextOperationId = 1;
+
+    public static newOperationId(): number {
+        return OperationHelper.nextOperationId++;
+    }
+
+    /**
+     * Native side operation options. An operation id is always set, so that the operation can be cancelled.
+     */
+    public static tsToNative(options: DIDPlugin.OperationOptions): { operationId: number, timeoutMs: number } {
+        return {
+            operationId: options.operationId ? options.operationId : OperationHelper.newOperationId(),
+            timeoutMs: options.timeoutMs ? options.timeoutMs : 0
+        };
+    }
+
+    /**
+     * Appends the native side options to the action arguments, only if the caller passed options, so
+     * that calls without options keep the arguments that all native plugins expect.
+     *
+     * @returns The operation id, or undefined without options.
+     */
+    public static appendToArgs(args: any[], options?: DIDPlugin.OperationOptions): number {
+        if (!options)
+            return undefined;
+
+        let operationOptions = OperationHelper.tsToNative(options);
+        args.push(operationOptions);
+        return operationOptions.operationId;
+    }
+}
+
 class DIDStoreImpl implements DIDPlugin.DIDStore {
     objId = null;
 
@@ -662,8 +732,26 @@ class DIDStoreImpl implements DIDPlugin.DIDStore {
         exec(onSuccess, onError, 'DIDPlugin', 'initPrivateIdentity', [this.objId, MnemonicLanguageHelper.tsToNative(language), mnemonic, passphrase, storepass, force]);
     }
 
-    changePassword(oldPassword: string, newPassword: string, onSuccess: () => void, onError?: (err: any) => void) {
-        exec(onSuccess, onError, 'DIDPlugin', 'DIDStore_changePassword', [this.objId, oldPassword, newPassword]);
+    changePassword(oldPassword: string, newPassword: string, onSuccess: () => void, onError?: (err: any) => void, onProgress?: (progress: DIDPlugin.StoreProgress) => void) {
+        var _onSuccess = function (ret?: { progress?: DIDPlugin.StoreProgress }) {
+            if (ret && ret.progress) {
+                if (onProgress)
+                    onProgress(ret.progress);
+            }
+            else if (onSuccess)
+                onSuccess();
+        }
+        exec(_onSuccess, onError, 'DIDPlugin', 'DIDStore_changePassword', [this.objId, oldPassword, newPassword]);
+    }
+
+    monitorExpirations(leadDays: number, onSuccess: (items: DIDPlugin.ExpirationItem[]) => void, onError?: (err: any) => void) {
+        exec((ret: { items: DIDPlugin.ExpirationItem[] }) => {
+            onSuccess(ret.items);
+        }, onError, 'DIDPlugin', 'DIDStore_monitorExpirations', [this.objId, leadDays]);
+    }
+
+    stopMonitoringExpirations(onSuccess?: () => void, onError?: (err: any) => void) {
+        exec(onSuccess, onError, 'DIDPlugin', 'DIDStore_stopMonitoringExpirations', [this.objId]);
     }
 
     containsPrivateIdentity(onSuccess: (hasPrivateIdentity: boolean) => void, onError?: (err: any) => void) {
@@ -691,6 +779,25 @@ class DIDStoreImpl implements DIDPlugin.DIDStore {
         exec(_onSuccess, onError, 'DIDPlugin', 'newDid', [this.objId, passphrase, alias]);
     }
 
+    newDids(passphrase: string, count: number, onSuccess: (dids: DIDPlugin.DID[]) => void, onError?: (err: any) => void, options?: DIDPlugin.OperationOptions): number {
+        var didStoreId = this.objId;
+        var _onSuccess = function (ret) {
+            let dids: DIDPlugin.DID[] = ret.dids.map((didString) => {
+                let did = new DIDImpl(didStoreId, didString, "");
+                did.initEmptyDID();
+                return did;
+            });
+
+            if (onSuccess)
+                onSuccess(dids);
+        }
+
+        let args: any[] = [this.objId, passphrase, count];
+        let operationId = OperationHelper.appendToArgs(args, options);
+        exec(_onSuccess, onError, 'DIDPlugin', 'newDids', args);
+        return operationId;
+    }
+
     listDids(filter: DIDPlugin.DIDStoreFilter, onSuccess: (dids: DIDPlugin.DID[]) => void, onError?: (err: any) => void) {
         var didStoreId = this.objId;
         var _onSuccess = function (ret) {
@@ -715,6 +822,10 @@ class DIDStoreImpl implements DIDPlugin.DIDStore {
         exec(_onSuccess, onError, 'DIDPlugin', 'loadDid', [this.objId, didString]);
     }
 
+    loadDidDocumentHandle(didString: string, onSuccess: (handle: DIDPlugin.DocumentHandle) => void, onError?: (err: any) => void) {
+        exec(onSuccess, onError, 'DIDPlugin', 'loadDidHandle', [this.objId, didString]);
+    }
+
     // resolveDidDocument(didString: string, onSuccess: (didDocument: DIDPlugin.DIDDocument)=>void, onError?: (err: any)=>void) {
     //     var _onSuccess = function(ret: {diddoc: string}) {
     //         var diddoc = NativeDIDDocument.createFromJson(ret.diddoc);
@@ -738,16 +849,53 @@ class DIDStoreImpl implements DIDPlugin.DIDStore {
     //     exec(onSuccess, onError, 'DIDPlugin', 'updateDid', [this.objId, didDocument.getSubject().getDIDString(), nativeDidDocument, storepass]);
     // }
 
-    synchronize(storepass: string, onSuccess: () => void, onError?: (err: any) => void) {
-        exec(onSuccess, onError, 'DIDPlugin', 'synchronize', [this.objId, storepass]);
+    synchronize(storepass: string, onSuccess: () => void, onError?: (err: any) => void, onProgress?: (progress: DIDPlugin.SynchronizeProgress) => void, options?: DIDPlugin.OperationOptions): number {
+        var _onSuccess = function (ret?: { progress?: DIDPlugin.SynchronizeProgress }) {
+            if (ret && ret.progress) {
+                if (onProgress)
+                    onProgress(ret.progress);
+            }
+            else if (onSuccess)
+                onSuccess();
+        }
+        let args: any[] = [this.objId, storepass];
+        let operationId = OperationHelper.appendToArgs(args, options);
+        exec(_onSuccess, onError, 'DIDPlugin', 'synchronize', args);
+        return operationId;
     }
 
     exportMnemonic(storepass: string, onSuccess: (mnemonic: string) => void, onError?: (err: any) => void) {
         exec(onSuccess, onError, 'DIDPlugin', 'exportMnemonic', [this.objId, storepass]);
     }
+
+    exportStore(path: string, password: string, storepass: string, onSuccess: () => void, onError?: (err: any) => void, onProgress?: (progress: DIDPlugin.StoreProgress) => void, options?: DIDPlugin.OperationOptions): number {
+        return this.transferStore('exportStore', path, password, storepass, onSuccess, onError, onProgress, options);
+    }
+
+    importStore(path: string, password: string, storepass: string, onSuccess: () => void, onError?: (err: any) => void, onProgress?: (progress: DIDPlugin.StoreProgress) => void, options?: DIDPlugin.OperationOptions): number {
+        return this.transferStore('importStore', path, password, storepass, onSuccess, onError, onProgress, options);
+    }
+
+    private transferStore(action: string, path: string, password: string, storepass: string, onSuccess: () => void, onError?: (err: any) => void, onProgress?: (progress: DIDPlugin.StoreProgress) => void, options?: DIDPlugin.OperationOptions): number {
+        var _onSuccess = function (ret?: { progress?: DIDPlugin.StoreProgress }) {
+            if (ret && ret.progress) {
+                if (onProgress)
+                    onProgress(ret.progress);
+            }
+            else if (onSuccess)
+                onSuccess();
+        }
+        let args: any[] = [this.objId, path, password, storepass];
+        let operationId = OperationHelper.appendToArgs(args, options);
+        exec(_onSuccess, onError, 'DIDPlugin', action, args);
+        return operationId;
+    }
 }
 
 const LISTENER_IDTRANSACTION = 1;
+const LISTENER_DOCUMENTREFRESH = 2;
+const LISTENER_STORECHANGE = 3;
+const LISTENER_RENEWALDUE = 4;
 type DIDManagerEvent = {
     callback: Function;
     object: any;
@@ -848,31 +996,117 @@ class DIDManagerImpl implements DIDPlugin.DIDManager {
         exec(_onSuccess, onError, 'DIDPlugin', 'isMnemonicValid', [MnemonicLanguageHelper.tsToNative(language), mnemonic]);
     }
 
-    setResolverUrl(resolver: string, onSuccess: () => void, onError?: (err: any) => void) {
+    setResolverUrl(resolver: string | string[], onSuccess: () => void, onError?: (err: any) => void) {
         exec(onSuccess, onError, 'DIDPlugin', 'setResolverUrl', [resolver]);
     }
 
-    resolveDidDocument(didString: string, forceRemote: boolean, onSuccess: (didDocument: DIDPlugin.DIDDocument) => void, onError?: (err: any) => void) {
-        var _onSuccess = function (ret: { diddoc?: string, updated: string }) {
+    enableResolverHedging(enable: boolean, onSuccess: () => void, onError?: (err: any) => void) {
+        exec(onSuccess, onError, 'DIDPlugin', 'enableResolverHedging', [enable]);
+    }
+
+    setResolverTimeouts(connectTimeoutMs: number, readTimeoutMs: number, onSuccess: () => void, onError?: (err: any) => void) {
+        exec(onSuccess, onError, 'DIDPlugin', 'setResolverTimeouts', [connectTimeoutMs, readTimeoutMs]);
+    }
+
+    setResolutionPolicy(policy: DIDPlugin.ResolutionPolicy, onSuccess: () => void, onError?: (err: any) => void) {
+        exec(onSuccess, onError, 'DIDPlugin', 'setResolutionPolicy', [policy]);
+    }
+
+    setDocumentRefreshListener(listener: (didDocument: DIDPlugin.DIDDocument) => void) {
+        this.setListener(LISTENER_DOCUMENTREFRESH, (event: { did: string, diddoc: string, updated: string }) => {
+            if (event && event.diddoc) {
+                var didDocument = NativeDIDDocument.createFromJson(event.diddoc, event.updated);
+                listener(didDocument.toDIDDocument());
+            }
+        });
+    }
+
+    setRenewalListener(listener: (due: DIDPlugin.ExpirationItem[]) => void) {
+        this.setListener(LISTENER_RENEWALDUE, (event: { due: DIDPlugin.ExpirationItem[] }) => {
+            if (event && event.due)
+                listener(event.due);
+        });
+    }
+
+    setStoreChangeListener(listener: (changes: DIDPlugin.StoreChange[]) => void) {
+        this.setListener(LISTENER_STORECHANGE, (event: { changes: DIDPlugin.StoreChange[] }) => {
+            if (event && event.changes)
+                listener(event.changes);
+        });
+    }
+
+    resolveDidDocument(didString: string, forceRemote: boolean, onSuccess: (didDocument: DIDPlugin.DIDDocument) => void, onError?: (err: any) => void, options?: DIDPlugin.OperationOptions): number {
+        var _onSuccess = function (ret: { diddoc?: string, updated: string, stale?: boolean }) {
             if (ret.diddoc) {
-                var didDocument = NativeDIDDocument.createFromJson(ret.diddoc, ret.updated);
-                onSuccess(didDocument.toDIDDocument());
+                var didDocument = NativeDIDDocument.createFromJson(ret.diddoc, ret.updated).toDIDDocument() as DIDDocumentImpl;
+                didDocument.stale = !!ret.stale;
+                onSuccess(didDocument);
             }
             else
                 onSuccess(null);
         }
-        exec(_onSuccess, onError, 'DIDPlugin', 'DIDManager_resolveDIDDocument', [didString, forceRemote]);
+        let args: any[] = [didString, forceRemote];
+        let operationId = OperationHelper.appendToArgs(args, options);
+        exec(_onSuccess, onError, 'DIDPlugin', 'DIDManager_resolveDIDDocument', args);
+        return operationId;
+    }
+
+    resolveDidDocumentHandle(didString: string, forceRemote: boolean, onSuccess: (handle: DIDPlugin.DocumentHandle) => void, onError?: (err: any) => void, options?: DIDPlugin.OperationOptions): number {
+        var _onSuccess = function (ret: { handle?: string, updated: string, stale?: boolean }) {
+            if (ret.handle)
+                onSuccess({ handle: ret.handle, updated: ret.updated, stale: !!ret.stale });
+            else
+                onSuccess(null);
+        }
+        let args: any[] = [didString, forceRemote];
+        let operationId = OperationHelper.appendToArgs(args, options);
+        exec(_onSuccess, onError, 'DIDPlugin', 'DIDManager_resolveDIDDocumentHandle', args);
+        return operationId;
+    }
+
+    getDocumentFields(handle: string, fields: string[], onSuccess: (fields: any) => void, onError?: (err: any) => void) {
+        exec(onSuccess, onError, 'DIDPlugin', 'getDocumentFields', [handle, fields]);
     }
 
-    parseJWT(shouldVerifySignature: boolean, jwtToken: String): Promise<DIDPlugin.ParseJWTResult> {
+    parseJWT(shouldVerifySignature: boolean, jwtToken: String, options?: DIDPlugin.OperationOptions): Promise<DIDPlugin.ParseJWTResult> {
+        let args: any[] = [shouldVerifySignature, jwtToken];
+        // The promise can't carry the operation id: it's returned in the options instead.
+        let operationId = OperationHelper.appendToArgs(args, options);
+        if (options)
+            options.operationId = operationId;
+
         return new Promise((resolve, reject) => {
             exec((ret: DIDPlugin.ParseJWTResult) => {
                 resolve(ret);
             }, (err) => {
                 reject(err);
-            }, 'DIDPlugin', 'DIDManager_parseJWT', [shouldVerifySignature, jwtToken]);
+            }, 'DIDPlugin', 'DIDManager_parseJWT', args);
         })
     }
+
+    getMetrics(reset: boolean, onSuccess: (metrics: DIDPlugin.PluginMetrics) => void, onError?: (err: any) => void) {
+        exec(onSuccess, onError, 'DIDPlugin', 'getMetrics', [reset]);
+    }
+
+    enableTracing(enable: boolean, onSuccess?: () => void, onError?: (err: any) => void) {
+        exec(onSuccess, onError, 'DIDPlugin', 'enableTracing', [enable]);
+    }
+
+    exportTrace(clear: boolean, onSuccess: (trace: any) => void, onError?: (err: any) => void) {
+        exec(onSuccess, onError, 'DIDPlugin', 'exportTrace', [clear]);
+    }
+
+    createOperationId(): number {
+        return OperationHelper.newOperationId();
+    }
+
+    cancel(operationId: number, onSuccess?: (cancelled: boolean) => void, onError?: (err: any) => void) {
+        var _onSuccess = function (ret: string) {
+            if (onSuccess)
+                onSuccess(ret == "true");
+        }
+        exec(_onSuccess, onError, 'DIDPlugin', 'cancel', [operationId]);
+    }
 }
 
 class VerifiableCredentialBuilderImpl implements DIDPlugin.VerifiableCredentialBuilder {
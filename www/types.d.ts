@@ -36,6 +36,13 @@
 declare module DIDPlugin {
     type DIDStoreFilter = "DID_HAS_PRIVATEKEY" | "DID_NO_PRIVATEKEY" | "DID_ALL";
 
+    /**
+     * - NETWORK_FIRST: resolves wait for the resolver when there is no valid cached copy (default).
+     * - STALE_WHILE_REVALIDATE: resolves return any cached copy right away, flagged as stale if it may be
+     * outdated, and refresh it in background.
+     */
+    type ResolutionPolicy = "NETWORK_FIRST" | "STALE_WHILE_REVALIDATE";
+
     type MnemonicLanguage =
         "ENGLISH" | "FRENCH" | "SPANISH" | "CHINESE_SIMPLIFIED" | "CHINESE_TRADITIONAL" | "JAPANESE" | "KOREAN" | "ITALIAN" | "CZECH";
 
@@ -177,12 +184,26 @@ declare module DIDPlugin {
          * @param storepass     Store password, used to sign the presentation.
          */
         createVerifiablePresentation(credentials: VerifiableCredential[], realm: string, nonce: string, storepass: string, onSuccess: (presentation: VerifiablePresentation) => void, onError?: (err: any) => void);
+
+        /**
+         * Same as createVerifiablePresentation(), but for credentials of this DID store, given by id.
+         * Credentials already loaded by loadCredential() or loadCredentials() are used as they are,
+         * without sending them back to the native side.
+         *
+         * @param credentialIds Long (did:elastos:abc#key) or short (#key) form ids of the credentials.
+         */
+        createVerifiablePresentationFromIds(credentialIds: CredentialID[], realm: string, nonce: string, storepass: string, onSuccess: (presentation: VerifiablePresentation) => void, onError?: (err: any) => void);
     }
 
     interface DIDDocument {
         getCreated(): Date;
         getUpdated(): Date;
         getExpires(): Date;
+        /**
+         * Whether this document was resolved from a local copy that may be outdated, with the
+         * STALE_WHILE_REVALIDATE resolution policy.
+         */
+        isStale(): boolean;
         setSubject(subject: DID);
         getSubject(): DID;
 
@@ -246,13 +267,33 @@ declare module DIDPlugin {
         verify(signString: string, originString: string, onSuccess: (data: any) => void, onError?: (err: any) => void);
         signDigest(storePass: string, digest: string, onSuccess: (data: any) => void, onError?: (err: any) => void);
 
+        /**
+         * Attests a batch of digests with a single signature. A Merkle tree is built over the digests, and
+         * only its root is signed, as SHA-256("DIDMerkleBatch" | count | root) with count on 4 bytes big
+         * endian. Each digest comes with a proof of its inclusion in the signed root.
+         *
+         * @param digests Hex encoded digests.
+         */
+        signDigests(storePass: string, digests: string[], onSuccess: (batch: DigestBatchSignature) => void, onError?: (err: any) => void);
+
+        /**
+         * Checks that a digest belongs to a batch signed with signDigests() by this DID. onError is called
+         * if it doesn't.
+         *
+         * @param signature Signature of the batch.
+         * @param index Index of the digest in the batch.
+         * @param count Number of digests in the batch.
+         * @param proof Proof of the digest, from the batch.
+         */
+        verifyDigestProof(signature: string, digest: string, index: number, count: number, proof: string[], onSuccess: () => void, onError?: (err: any) => void);
+
         /**
          * Initiates a DID document publication process from the local device to the DID sidechain.
          *
          * During this process, the DID SDK generates a "publish DID" request, and this request is passed
          * to the createIdTransactionCallback() previously setup when calling initDIDStore.
          */
-        publish(storepass: string, onSuccess?: () => void, onError?: (err: any) => void);
+        publish(storepass: string, onSuccess?: () => void, onError?: (err: any) => void, options?: OperationOptions): number;
 
         /**
          * Create a JWT, signed by the DID document.
@@ -262,6 +303,20 @@ declare module DIDPlugin {
          */
         createJWT(properties: any, validityDays: number, storepass: string, onSuccess: (token: string) => void, onError?: (err: any) => void);
 
+        /**
+         * Create several JWTs at once, signed by the DID document, for example short lived access tokens.
+         * All tokens share the same header and validity, and are signed in parallel.
+         *
+         * @param header Header fields added to the JWT type and content type (string, number or boolean values), or null.
+         *               Registered JWS header parameters (alg, kid, typ, cty...) can't be set.
+         * @param validitySeconds Number of seconds after which the JWTs become invalid, at most one year.
+         * @param claimSets Claims of each JWT.
+         * @param onSuccess Called with the tokens, in the order of the claim sets.
+         *
+         * @returns The operation id if options are given, that can be passed to DIDManager.cancel().
+         */
+        createJWTs(header: any, validitySeconds: number, claimSets: any[], storepass: string, onSuccess: (tokens: string[]) => void, onError?: (err: any) => void, options?: OperationOptions): number;
+
         /**
          * JSON string representation of this DID document.
          */
@@ -295,15 +350,53 @@ declare module DIDPlugin {
         /**
          * Change the didstore password
          *
+         * All private keys and the mnemonic are re-encrypted in background. If this is interrupted (app killed),
+         * the old password remains valid and the password change must be started again.
+         *
          * @param oldPassword  The old password.
          * @param newPassword  The new password.
+         * @param onProgress   Called regularly while the store is re-encrypted.
          */
-        changePassword(oldPassword: string, newPassword: string, onSuccess: () => void, onError?: (err: any) => void);
+        changePassword(oldPassword: string, newPassword: string, onSuccess: () => void, onError?: (err: any) => void, onProgress?: (progress: StoreProgress) => void);
+
+        /**
+         * Starts monitoring the expiration of the DIDs and credentials of this store. Those expiring
+         * within leadDays are reported to the DIDManager renewal listener, ahead of time, so that they
+         * can be renewed (published again, issued again) in background. Monitoring follows the changes
+         * made to the store, and renewed items are reported again only when due again. Items due
+         * while no renewal listener is set are reported once one is set, and items reported are
+         * remembered across app restarts.
+         *
+         * @param onSuccess Called with the monitored items, soonest expiring first.
+         */
+        monitorExpirations(leadDays: number, onSuccess: (items: ExpirationItem[]) => void, onError?: (err: any) => void);
+
+        stopMonitoringExpirations(onSuccess?: () => void, onError?: (err: any) => void);
         containsPrivateIdentity(onSuccess: (hasPrivateIdentity: boolean) => void, onError?: (err: any) => void);
         deleteDid(didString: string, onSuccess: () => void, onError?: (err: any) => void);
         newDid(passphrase: string, alias: string, onSuccess: (did: DID) => void, onError?: (err: any) => void);
+
+        /**
+         * Creates count new DIDs at once, derived from the private identity of this store. Much faster than
+         * calling newDid() count times, as the chain lookups needed to create each DID are done in parallel.
+         *
+         * @param onSuccess Called with the new DIDs, in derivation order.
+         *
+         * @returns The operation id if options are given, that can be passed to DIDManager.cancel().
+         */
+        newDids(passphrase: string, count: number, onSuccess: (dids: DID[]) => void, onError?: (err: any) => void, options?: OperationOptions): number;
+
         listDids(filter: DIDStoreFilter, onSuccess: (dids: DID[]) => void, onError?: (err: any) => void); // TODO: "filter" type
         loadDidDocument(didString: string, onSuccess: (didDocument: DIDDocument) => void, onError?: (err: any) => void);
+
+        /**
+         * Same as loadDidDocument(), but only returns a handle to the document. Use
+         * DIDManager.getDocumentFields() to read the fields actually needed, instead of transferring
+         * and parsing the whole document.
+         *
+         * Android only: onError is called on other platforms.
+         */
+        loadDidDocumentHandle(didString: string, onSuccess: (handle: DocumentHandle) => void, onError?: (err: any) => void);
         storeDidDocument(didDocument: DIDDocument, alias: string, onSuccess: () => void, onError?: (err: any) => void);
         // updateDidDocument(didDocument: DIDDocument, storepass: string, onSuccess?: ()=>void, onError?: (err: any)=>void);
 
@@ -320,9 +413,39 @@ declare module DIDPlugin {
          *
          * NOTE: Only data previously saved on chain can be restore. This method cannot restore private credentials
          * kept by the user on his device.
+         *
+         * DIDs are resolved in parallel, and DIDs that didn't change on chain are left as they are.
+         *
+         * @param onProgress Called once for each DID, as soon as it's synchronized.
+         * @returns The operation id if options are given, to cancel the synchronization.
          */
-        synchronize(storepass: string, onSuccess: () => void, onError?: (err: any) => void);
+        synchronize(storepass: string, onSuccess: () => void, onError?: (err: any) => void, onProgress?: (progress: SynchronizeProgress) => void, options?: OperationOptions): number;
         exportMnemonic(storePass: string, onSuccess: (mnemonic: string) => void, onError?: (err: any) => void);
+
+        /**
+         * Exports the whole store (private identities, DIDs, credentials and private keys) to a zip archive file,
+         * to back it up or to move it to another device. The archive is streamed to the file, whatever the store size.
+         *
+         * @param path      Absolute path or file:// URL of the archive file to create.
+         * @param password  Password protecting the exported data. Required to import it.
+         * @param storepass Password of this store.
+         * @param onProgress Called after each exported identity or DID.
+         *
+         * @returns The operation id if options are given, that can be passed to DIDManager.cancel().
+         */
+        exportStore(path: string, password: string, storepass: string, onSuccess: () => void, onError?: (err: any) => void, onProgress?: (progress: StoreProgress) => void, options?: OperationOptions): number;
+
+        /**
+         * Imports an archive created by exportStore() into this store.
+         *
+         * @param path      Absolute path or file:// URL of the archive file.
+         * @param password  Password the archive was exported with.
+         * @param storepass Password of this store. Imported private keys are encrypted with it.
+         * @param onProgress Called after each imported identity or DID.
+         *
+         * @returns The operation id if options are given, that can be passed to DIDManager.cancel().
+         */
+        importStore(path: string, password: string, storepass: string, onSuccess: () => void, onError?: (err: any) => void, onProgress?: (progress: StoreProgress) => void, options?: OperationOptions): number;
     }
 
     /**
@@ -337,6 +460,124 @@ declare module DIDPlugin {
         errorReason?: string;
     }
 
+    /**
+     * Options of long running operations (publication, synchronization, resolution, JWT verification).
+     * When options are given, those operations return an operation id that can be passed to
+     * DIDManager.cancel(). Deadlines and cancellation are Android only: other platforms ignore the options.
+     */
+    type OperationOptions = {
+        /** The operation fails with a timeout error if it's not done within this delay, in milliseconds. */
+        timeoutMs?: number;
+        /** Operation id to use, from DIDManager.createOperationId(). Generated if not set. */
+        operationId?: number;
+    }
+
+    type ActionLatency = {
+        count: number;
+        meanMs: number;
+        p50Ms: number;
+        p95Ms: number;
+        p99Ms: number;
+        maxMs: number;
+    }
+
+    type ActionMetrics = {
+        calls: number;
+        /** Average calls per second since metrics started being recorded */
+        callsPerSecond: number;
+        errors: number;
+        /** Number of errors for each error code */
+        errorCodes: { [code: string]: number };
+        /** Time from the call to its result (or error) */
+        latency: ActionLatency;
+    }
+
+    type RuntimeMetrics = {
+        /** Live threads in the native process */
+        threads: number;
+        heapUsedBytes: number;
+        heapMaxBytes: number;
+        processors: number;
+    }
+
+    type PluginMetrics = {
+        /** Time at which metrics started being recorded (plugin start or last reset), in ms since epoch */
+        since: number;
+        /** Metrics of each action called since then */
+        actions: { [action: string]: ActionMetrics };
+        /** Native process resources at the time of the snapshot */
+        runtime: RuntimeMetrics;
+        /** Number of objects held by the native plugin (documents, dids, publicKeys, stores, issuers) */
+        registries: { [registry: string]: number };
+        /** Cache statistics, including hit ratios */
+        caches: { [cache: string]: any };
+        /** Requests, errors and latency of each resolver */
+        resolvers: any[];
+        /** DID backend initialization timings */
+        backend: any;
+        /** Interactive actions pending, and time background operations spent giving way to them */
+        scheduler: { interactivePending: number, backgroundYields: number, backgroundYieldMs: number };
+    }
+
+    type StoreChange = {
+        storeId: string;
+        /** storeChanged means many changes at once (import): the store should be listed again */
+        type: "didAdded" | "didDeleted" | "documentUpdated" | "credentialStored" | "credentialDeleted" | "storeChanged";
+        /** DID or credential id, except for storeChanged */
+        id?: string;
+    }
+
+    type DigestBatchSignature = {
+        /** Hex encoded Merkle root of the batch */
+        root: string;
+        /** Signature of SHA-256("DIDMerkleBatch" | count | root) */
+        signature: string;
+        /** Number of digests in the batch */
+        count: number;
+        /** Inclusion proof of each digest, in the order of the digests: hex encoded hashes */
+        proofs: string[][];
+    }
+
+    type ExpirationItem = {
+        storeId: string;
+        type: "did" | "credential";
+        /** DID or credential id */
+        id: string;
+        /** Expiration time, in ms since epoch */
+        expires: number;
+    }
+
+    type DocumentHandle = {
+        /** Handle to pass to DIDManager.getDocumentFields() */
+        handle: string;
+        /** Publication time of the document */
+        updated: string;
+        /** True if the document came from the cache and is being refreshed in background */
+        stale?: boolean;
+    }
+
+    /**
+     * Progress of store wide operations: password change (store files re-encrypted), export and import
+     * (identities and DIDs transferred).
+     */
+    type StoreProgress = {
+        /** Number of items done so far */
+        completed: number;
+        /** Number of items to process */
+        total: number;
+    }
+
+    type SynchronizeProgress = {
+        /** DID that was just synchronized */
+        did: DIDString;
+        /** unchanged, updated, new (found on chain and added to the store), notfound, or failed */
+        status: "unchanged" | "updated" | "new" | "notfound" | "failed";
+        /** Number of DIDs synchronized so far */
+        completed: number;
+        /** Number of DIDs to synchronize */
+        total: number;
+    }
+
     interface DIDManager {
         getVersion(onSuccess: (version: string) => void, onError?: (err: any) => void);
         enableJsonLdContext(enable: boolean, onSuccess: () => void, onError?: (err: any) => void);
@@ -348,8 +589,53 @@ declare module DIDPlugin {
         isMnemonicValid(language: MnemonicLanguage, mnemonic: string, onSuccess: (isValid: boolean) => void, onError?: (err: any) => void);
         /**
          * Call setResolverUrl before initDidStore.
+         *
+         * @param resolver One resolver URL, or a list of resolver URLs. With several resolvers, requests
+         * go to the fastest healthy one, and failing resolvers are avoided for a while.
+         */
+        setResolverUrl(resolver: string | string[], onSuccess: () => void, onError?: (err: any) => void);
+
+        /**
+         * When several resolvers are set, also sends a request to the second best resolver when the best
+         * one is slower than usual (p95), and uses the first response. Disabled by default.
+         */
+        enableResolverHedging(enable: boolean, onSuccess: () => void, onError?: (err: any) => void);
+
+        /**
+         * Sets the connect and read timeouts used for requests to the resolver.
+         * Connections to the resolver are kept alive and reused between requests.
+         *
+         * @param connectTimeoutMs Maximum time to establish a connection, in milliseconds.
+         * @param readTimeoutMs Maximum time to wait for response data, in milliseconds.
+         */
+        setResolverTimeouts(connectTimeoutMs: number, readTimeoutMs: number, onSuccess: () => void, onError?: (err: any) => void);
+
+        /**
+         * Sets how DID documents are resolved when the cached copy is expired or when a remote resolve
+         * is requested. With STALE_WHILE_REVALIDATE, verification doesn't wait for the network for known
+         * DIDs: documents may be returned stale (see DIDDocument.isStale()) and are refreshed in background.
+         */
+        setResolutionPolicy(policy: ResolutionPolicy, onSuccess: () => void, onError?: (err: any) => void);
+
+        /**
+         * Called with the new document when a background refresh of a stale document finds that the
+         * document changed on chain.
+         */
+        setDocumentRefreshListener(listener: (didDocument: DIDDocument) => void);
+
+        /**
+         * Called with the changes made to DID stores by this plugin: DIDs created, deleted or
+         * synchronized, documents updated or published, credentials stored or deleted, stores imported.
+         * Changes made within a short time are delivered together, each one once, so that the app can
+         * update its state instead of listing the store again.
          */
-        setResolverUrl(resolver: string, onSuccess: () => void, onError?: (err: any) => void);
+        setStoreChangeListener(listener: (changes: StoreChange[]) => void);
+
+        /**
+         * Called with the DIDs and credentials of monitored stores that are due for renewal. See
+         * DIDStore.monitorExpirations().
+         */
+        setRenewalListener(listener: (due: ExpirationItem[]) => void);
 
         /**
          * Resolve any kind of DID document that does not belong to a local DIDStore. This is useful to
@@ -359,7 +645,29 @@ declare module DIDPlugin {
          *
          * @param forceRemote True will not use previously resolved document stored locally in cache. False will try to load locally then load from chain if nothing found (or expired).
          */
-        resolveDidDocument(didString: string, forceRemote: boolean, onSuccess: (didDocument: DIDDocument) => void, onError?: (err: any) => void);
+        resolveDidDocument(didString: string, forceRemote: boolean, onSuccess: (didDocument: DIDDocument) => void, onError?: (err: any) => void, options?: OperationOptions): number;
+
+        /**
+         * Same as resolveDidDocument(), but only returns a handle to the document (null if not found).
+         * Use getDocumentFields() to read the fields actually needed.
+         *
+         * Android only: onError is called on other platforms.
+         */
+        resolveDidDocumentHandle(didString: string, forceRemote: boolean, onSuccess: (handle: DocumentHandle) => void, onError?: (err: any) => void, options?: OperationOptions): number;
+
+        /**
+         * Returns only the given fields of a document, as an object keyed by field.
+         *
+         * Supported fields: "id", "controllers", "expires", "expired", "updated", "defaultPublicKey",
+         * "publicKeys", "authenticationKeys" (key ids), "services", "service:<id>" (a single service,
+         * null if missing), "credentialIds".
+         *
+         * @param handle Handle from loadDidDocumentHandle() or resolveDidDocumentHandle(). A handle
+         * refers to the last document loaded or resolved for its DID.
+         *
+         * Android only: onError is called on other platforms.
+         */
+        getDocumentFields(handle: string, fields: string[], onSuccess: (fields: any) => void, onError?: (err: any) => void);
 
         /**
          * Parses a JWT token and does several things:
@@ -376,10 +684,46 @@ declare module DIDPlugin {
          * to verify the signature.
          *
          * @param verifySignature True to resolve the DID on chain to verify the signatrue, false to not verify.
+         * @param options If given, options.operationId is set to the id of the operation, to cancel it.
          *
          * @returns Various informations about the parse result. See ParseJWTResult.
          */
-        parseJWT(verifySignature: boolean, jwtToken: String): Promise<ParseJWTResult>;
+        parseJWT(verifySignature: boolean, jwtToken: String, options?: OperationOptions): Promise<ParseJWTResult>;
+
+        /**
+         * Returns a snapshot of the plugin metrics: calls, errors and latencies of each action, cache
+         * hit ratios and registry sizes.
+         *
+         * @param reset True to start recording metrics from scratch after this snapshot.
+         */
+        getMetrics(reset: boolean, onSuccess: (metrics: PluginMetrics) => void, onError?: (err: any) => void);
+
+        /**
+         * Starts or stops recording the phases of plugin actions (argument parsing, disk, crypto, network,
+         * cache, serialization). Tracing is off by default. The most recent spans are kept in memory.
+         */
+        enableTracing(enable: boolean, onSuccess?: () => void, onError?: (err: any) => void);
+
+        /**
+         * Returns the recorded spans as a Chrome trace-event object, that can be saved to a JSON file
+         * and opened in chrome://tracing or Perfetto.
+         *
+         * @param clear True to drop the recorded spans after exporting them.
+         */
+        exportTrace(clear: boolean, onSuccess: (trace: any) => void, onError?: (err: any) => void);
+
+        /**
+         * Returns a new operation id, to set in the OperationOptions of an operation before it starts.
+         */
+        createOperationId(): number;
+
+        /**
+         * Cancels a running operation. Its error callback is called right away with a "cancelled" error,
+         * and the resources it uses are released.
+         *
+         * @param onSuccess Called with false if there was no such operation running anymore.
+         */
+        cancel(operationId: number, onSuccess?: (cancelled: boolean) => void, onError?: (err: any) => void);
 
         VerifiableCredentialBuilder: VerifiableCredentialBuilder;
         VerifiablePresentationBuilder: VerifiablePresentationBuilder;